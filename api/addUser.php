@@ -1,20 +1,23 @@
 <?php
-$data = file_get_contents('php://input');
-//parse_str($_POST, $data);
-$username = explode("=", (explode("&", $data)[0]))[1];
-$password = explode("=", (explode("&", $data)[1]))[1];
-
-$userpath = "../users/";
-$userpath .= $username;
-$userpath .= "/";
+require 'users.inc.php';
+parse_str(file_get_contents('php://input'), $data);
+$username = isset($data['username']) ? $data['username'] : '';
+$password = isset($data['password']) ? $data['password'] : '';
+if ($username === '' || $password === '' || preg_match('/\s/', $username)) {
+	http_response_code(400);
+	exit;
+}
 
-if (is_dir($userpath)) {
-	throw new Exception("Username already taken.");
+list($handle, $accounts) = users_open(LOCK_EX);
+if (isset($accounts[$username]) || is_dir($usersDir . basename($username))) {
+	users_close($handle);
+	// 409 Conflict tells the client the username is taken
+	http_response_code(409);
+	exit;
 }
-mkdir($userpath, 0700);
+$accounts[$username] = password_hash($password, PASSWORD_DEFAULT);
+users_close($handle, $accounts);
 
-$passpath = $userpath;
-$passpath .= $password;
-$passpath .= ".txt";
-file_put_contents($passpath, "asdf");
+// log the new user in straight away so the client needs no second request
+session_begin($username);
 ?>
\ No newline at end of file
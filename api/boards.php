@@ -0,0 +1,16 @@
+<?php
+// lists the boards, one name per line, the general board first
+header('Content-Type: text/plain; charset=utf-8');
+echo "general\n";
+$names = array();
+foreach (glob('../boards/*', GLOB_ONLYDIR) as $dir) {
+	$name = basename($dir);
+	if ($name !== 'general' && preg_match('/^[a-z0-9][a-z0-9_-]{0,31}$/', $name)) {
+		$names[] = $name;
+	}
+}
+sort($names);
+foreach ($names as $name) {
+	echo $name . "\n";
+}
+?>
\ No newline at end of file
@@ -0,0 +1,111 @@
+<?php
+// adds a batch of posts by the user of the session, one line of JSON per post: {"key":"...","board":"...","body":"..."}
+// answers one "key id" line per post, in the same order; a post that can never be written is answered with the id -1
+// the key is chosen by the client: a key seen before is answered with the post already written, so sending a batch again never posts twice
+require 'users.inc.php';
+require 'posts.inc.php';
+$author = session_user();
+if ($author === null) {
+	http_response_code(401);
+	exit;
+}
+
+$order = array();
+$ids = array();
+$boards = array();
+foreach (explode("\n", file_get_contents('php://input')) as $line) {
+	if (trim($line) === '') {
+		continue;
+	}
+	$post = json_decode($line, true);
+	if (!is_array($post) || !isset($post['key']) || !preg_match('/^[A-Za-z0-9-]{1,64}$/', $post['key'])) {
+		http_response_code(400);
+		exit;
+	}
+	$order[] = $post['key'];
+	$board = isset($post['board']) && $post['board'] !== '' ? $post['board'] : 'general';
+	if (!isset($post['body']) || !is_string($post['body']) || !preg_match('/^[a-z0-9][a-z0-9_-]{0,31}$/', $board)) {
+		$ids[$post['key']] = -1;
+		continue;
+	}
+	$boards[$board][] = $post;
+}
+if (count($order) > 500) {
+	http_response_code(413);
+	exit;
+}
+
+foreach ($boards as $board => $posts) {
+	$file = '../posts.ndjson';
+	if ($board !== 'general') {
+		@mkdir('../boards/' . $board, 0755, true);
+		$file = '../boards/' . $board . '/posts.ndjson';
+	}
+	$handle = fopen($file, 'c+');
+	// hold the file while the batch is written so concurrent posts do not overwrite each other
+	flock($handle, LOCK_EX);
+	$existing = stream_get_contents($handle);
+	if ($board === 'general') {
+		$existing = posts_migrate($handle, $existing);
+	}
+
+	// the keys of the most recent posts are kept next to the file, one "key id" line each
+	$keyFile = $file . '.keys';
+	$seen = array();
+	if (is_file($keyFile)) {
+		foreach (file($keyFile, FILE_IGNORE_NEW_LINES | FILE_SKIP_EMPTY_LINES) as $kept) {
+			$pair = explode(' ', $kept);
+			$seen[$pair[0]] = (int) $pair[1];
+		}
+	}
+
+	// the newest post is the first line, and the next id follows its id
+	$id = 1;
+	$newest = json_decode(strtok($existing, "\n"), true);
+	if ($newest) {
+		$id = $newest['id'] + 1;
+	}
+	$records = '';
+	$added = '';
+	foreach ($posts as $post) {
+		if (isset($seen[$post['key']])) {
+			$ids[$post['key']] = $seen[$post['key']];
+			continue;
+		}
+		// the batch is oldest first and the file newest first, so each post goes in front of the one before it
+		$records = json_encode(array(
+			'id' => $id,
+			'author' => $author,
+			'time' => (int) round(microtime(true) * 1000),
+			'body' => $post['body']
+		), JSON_UNESCAPED_SLASHES | JSON_UNESCAPED_UNICODE) . "\n" . $records;
+		$seen[$post['key']] = $id;
+		$ids[$post['key']] = $id;
+		$added .= $post['key'] . ' ' . $id . "\n";
+		$id++;
+	}
+	if ($records !== '') {
+		rewind($handle);
+		ftruncate($handle, 0);
+		fwrite($handle, $records . $existing);
+		fflush($handle);
+		if (count($seen) > 20000) {
+			// only remember the most recent keys
+			$lines = '';
+			foreach (array_slice($seen, -10000, null, true) as $key => $kept) {
+				$lines .= $key . ' ' . $kept . "\n";
+			}
+			file_put_contents($keyFile, $lines);
+		} else {
+			file_put_contents($keyFile, $added, FILE_APPEND);
+		}
+	}
+	flock($handle, LOCK_UN);
+	fclose($handle);
+}
+
+header('Content-Type: text/plain; charset=utf-8');
+foreach ($order as $key) {
+	echo $key . ' ' . $ids[$key] . "\n";
+}
+?>
\ No newline at end of file
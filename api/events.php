@@ -0,0 +1,75 @@
+<?php
+// pushes every new post as a server-sent event: "id: ID" then "data: LINE", where LINE is the post's line in posts.ndjson
+// the client sends the id of the newest post it has as Last-Event-ID (or ?after=ID) and is sent every post after it
+// the script answers for a while and then ends; clients reconnect with the id of the newest post they got
+// the board is chosen with ?board=NAME, the general board if there is none
+$board = isset($_GET['board']) && $_GET['board'] !== '' ? $_GET['board'] : 'general';
+if (!preg_match('/^[a-z0-9][a-z0-9_-]{0,31}$/', $board)) {
+	http_response_code(404);
+	exit;
+}
+$file = $board === 'general' ? '../posts.ndjson' : '../boards/' . $board . '/posts.ndjson';
+$last = -1;
+if (isset($_SERVER['HTTP_LAST_EVENT_ID'])) {
+	$last = (int) $_SERVER['HTTP_LAST_EVENT_ID'];
+} else if (isset($_GET['after'])) {
+	$last = (int) $_GET['after'];
+}
+
+header('Content-Type: text/event-stream; charset=utf-8');
+header('Cache-Control: no-cache');
+header('X-Accel-Buffering: no');
+set_time_limit(0);
+while (ob_get_level() > 0) {
+	ob_end_flush();
+}
+
+$catchUp = 1000; // the most missed posts sent at once; a gap in the ids tells the client to fetch the rest
+$deadline = time() + 25;
+$heartbeat = time() + 15;
+$size = -1;
+while (time() < $deadline && !connection_aborted()) {
+	clearstatcache();
+	$now = @filesize($file);
+	if ($now !== false && $now !== $size) {
+		$size = $now;
+		// the newest posts are at the start of the file, so read lines until one the client already has
+		$handle = fopen($file, 'r');
+		flock($handle, LOCK_SH);
+		$missed = array();
+		while (($line = fgets($handle)) !== false) {
+			$line = rtrim($line, "\r\n");
+			if ($line === '') {
+				continue;
+			}
+			$post = json_decode($line, true);
+			if (!$post || $post['id'] <= $last) {
+				break;
+			}
+			$missed[] = $line;
+			if (count($missed) >= $catchUp) {
+				// too far behind, so only send the newest post
+				$missed = array($missed[0]);
+				break;
+			}
+		}
+		flock($handle, LOCK_UN);
+		fclose($handle);
+		for ($i = count($missed) - 1; $i >= 0; $i--) {
+			$post = json_decode($missed[$i], true);
+			echo "id: " . $post['id'] . "\ndata: " . $missed[$i] . "\n\n";
+			$last = max($last, $post['id']);
+		}
+		if (count($missed) > 0) {
+			flush();
+			$heartbeat = time() + 15;
+		}
+	}
+	if (time() >= $heartbeat) {
+		echo ": keepalive\n\n";
+		flush();
+		$heartbeat = time() + 15;
+	}
+	usleep(500000);
+}
+?>
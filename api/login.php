@@ -0,0 +1,29 @@
+<?php
+require 'users.inc.php';
+parse_str(file_get_contents('php://input'), $data);
+$username = isset($data['username']) ? $data['username'] : '';
+$password = isset($data['password']) ? $data['password'] : '';
+
+list($handle, $accounts) = users_open(LOCK_SH);
+$known = isset($accounts[$username]) && password_verify($password, $accounts[$username]);
+users_close($handle);
+
+// accounts of older versions are a directory users/NAME holding PASSWORD.txt; move them into the store on their first login
+$legacy = $usersDir . basename($username) . '/' . basename($password) . '.txt';
+if (!$known && $username !== '' && $password !== '' && is_file($legacy)) {
+	list($handle, $accounts) = users_open(LOCK_EX);
+	$accounts[$username] = password_hash($password, PASSWORD_DEFAULT);
+	users_close($handle, $accounts);
+	unlink($legacy);
+	@rmdir(dirname($legacy));
+	$known = true;
+}
+
+if (!$known) {
+	// 403 Forbidden tells the client the credentials do not exist
+	http_response_code(403);
+	exit;
+}
+
+session_begin($username);
+?>
\ No newline at end of file
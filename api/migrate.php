@@ -0,0 +1,12 @@
+<?php
+// converts posts.txt into posts.ndjson once, right after upgrading, so the old posts are there before anyone posts (see posts.inc.php)
+// run it with "php migrate.php" from this directory, or open it once in a browser; it does nothing once posts.txt is converted
+require 'posts.inc.php';
+$handle = fopen('../posts.ndjson', 'c+');
+flock($handle, LOCK_EX);
+$posts = posts_migrate($handle, stream_get_contents($handle));
+flock($handle, LOCK_UN);
+fclose($handle);
+header('Content-Type: text/plain; charset=utf-8');
+echo substr_count($posts, "\n") . " posts\n";
+?>
\ No newline at end of file
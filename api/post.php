@@ -1,6 +1,53 @@
 <?php
-$file = '../posts.txt';
-$posts = nl2br(file_get_contents('php://input'));
-$posts .= file_get_contents($file);
-file_put_contents($file, $posts);
+// every post is one line of JSON, newest first: {"id":..,"author":..,"time":..,"body":..}
+require 'users.inc.php';
+require 'posts.inc.php';
+// posts are written as the user of the session, whatever author the form names
+$author = session_user();
+if ($author === null) {
+	http_response_code(401);
+	exit;
+}
+parse_str(file_get_contents('php://input'), $data);
+// the general board is posts.ndjson, any other board is boards/NAME/posts.ndjson, created by its first post
+$board = isset($data['board']) && $data['board'] !== '' ? $data['board'] : 'general';
+if (!preg_match('/^[a-z0-9][a-z0-9_-]{0,31}$/', $board)) {
+	http_response_code(400);
+	exit;
+}
+$file = '../posts.ndjson';
+if ($board !== 'general') {
+	@mkdir('../boards/' . $board, 0755, true);
+	$file = '../boards/' . $board . '/posts.ndjson';
+}
+
+$handle = fopen($file, 'c+');
+// hold the file while the new post is written so concurrent posts do not overwrite each other
+flock($handle, LOCK_EX);
+$posts = stream_get_contents($handle);
+if ($board === 'general') {
+	$posts = posts_migrate($handle, $posts);
+}
+
+// the newest post is the first line, and the next id follows its id
+$id = 1;
+$newest = json_decode(strtok($posts, "\n"), true);
+if ($newest) {
+	$id = $newest['id'] + 1;
+}
+
+$record = json_encode(array(
+	'id' => $id,
+	'author' => $author,
+	'time' => (int) round(microtime(true) * 1000),
+	'body' => $data['body']
+), JSON_UNESCAPED_SLASHES | JSON_UNESCAPED_UNICODE);
+
+rewind($handle);
+ftruncate($handle, 0);
+fwrite($handle, $record . "\n" . $posts);
+fflush($handle);
+flock($handle, LOCK_UN);
+fclose($handle);
+echo $id;
 ?>
\ No newline at end of file
@@ -0,0 +1,64 @@
+<?php
+// posts.txt, the posts database before posts.ndjson, is converted the first time posts are written to the general board, or by migrate.php
+// an old post is "BODY\n-USERNAME MM/DD/YY at HH:MM:SS\n\n", newest first, with "<br />" put before every new line (see nl2br)
+// the old posts get ids oldest first, from 1; posts already in posts.ndjson are numbered after them
+$oldFile = '../posts.txt';
+
+// converts posts.txt into records in front of the posts already in the general board, and keeps it as posts.txt.migrated
+// the caller holds the lock of posts.ndjson; returns the contents of posts.ndjson after the conversion
+function posts_migrate($handle, $existing) {
+	global $oldFile;
+	if (!is_file($oldFile)) {
+		return $existing;
+	}
+	$text = str_replace(array("<br />\r\n", "<br />\n"), array("\n", "\n"), file_get_contents($oldFile));
+	preg_match_all('/(.*?)\n-(\S+) (\d\d\/\d\d\/\d\d) at (\d\d:\d\d:\d\d)\n\n/s', $text, $found, PREG_SET_ORDER);
+	// the file is newest first, and ids go oldest first
+	$found = array_reverse($found);
+	$records = array();
+	$id = 1;
+	foreach ($found as $post) {
+		$time = DateTime::createFromFormat('m/d/y H:i:s', $post[3] . ' ' . $post[4]);
+		$records[] = json_encode(array(
+			'id' => $id++,
+			'author' => $post[2],
+			'time' => $time ? $time->getTimestamp() * 1000 : 0,
+			'body' => $post[1]
+		), JSON_UNESCAPED_SLASHES | JSON_UNESCAPED_UNICODE | JSON_INVALID_UTF8_SUBSTITUTE);
+	}
+	$lines = explode("\n", rtrim($existing, "\n"));
+	// a conversion cut short after posts.ndjson was written leaves the oldest old post as the last line
+	$done = count($records) === 0 || ($existing !== '' && end($lines) === $records[0]);
+	if (!$done) {
+		$shift = count($records);
+		$shifted = '';
+		if ($existing !== '') {
+			foreach ($lines as $line) {
+				$record = json_decode($line, true);
+				if (is_array($record)) {
+					$record['id'] += $shift;
+					$line = json_encode($record, JSON_UNESCAPED_SLASHES | JSON_UNESCAPED_UNICODE);
+				}
+				$shifted .= $line . "\n";
+			}
+		}
+		$existing = $shifted . (count($records) > 0 ? implode("\n", array_reverse($records)) . "\n" : '');
+		rewind($handle);
+		ftruncate($handle, 0);
+		fwrite($handle, $existing);
+		fflush($handle);
+		// the keys of posts already written follow their posts
+		$keyFile = '../posts.ndjson.keys';
+		if ($shift > 0 && is_file($keyFile)) {
+			$keys = '';
+			foreach (file($keyFile, FILE_IGNORE_NEW_LINES | FILE_SKIP_EMPTY_LINES) as $kept) {
+				$pair = explode(' ', $kept);
+				$keys .= $pair[0] . ' ' . ((int) $pair[1] + $shift) . "\n";
+			}
+			file_put_contents($keyFile, $keys);
+		}
+	}
+	rename($oldFile, $oldFile . '.migrated');
+	return $existing;
+}
+?>
\ No newline at end of file
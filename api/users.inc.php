@@ -0,0 +1,64 @@
+<?php
+// the accounts are one JSON object in ../users/users.json, mapping each username to a salted hash of its password (see password_hash)
+// the file is read under a lock and looked up as a hash map, instead of a directory per user
+$usersDir = '../users/';
+$usersFile = $usersDir . 'users.json';
+
+// opens the accounts, locked for reading or for writing; returns the handle and the accounts
+function users_open($lock) {
+	global $usersDir, $usersFile;
+	if (!is_dir($usersDir)) {
+		mkdir($usersDir, 0700, true);
+	}
+	if (!is_file($usersDir . '.htaccess')) {
+		// the hashes are nobody's business
+		file_put_contents($usersDir . '.htaccess', "Require all denied\n");
+	}
+	$handle = fopen($usersFile, 'c+');
+	flock($handle, $lock);
+	$accounts = json_decode(stream_get_contents($handle), true);
+	return array($handle, is_array($accounts) ? $accounts : array());
+}
+
+// writes the accounts back and releases them
+function users_close($handle, $accounts = null) {
+	if ($accounts !== null) {
+		rewind($handle);
+		ftruncate($handle, 0);
+		fwrite($handle, json_encode($accounts));
+		fflush($handle);
+	}
+	flock($handle, LOCK_UN);
+	fclose($handle);
+}
+
+// the username of the session named by "Authorization: Bearer TOKEN", or null if there is no live session
+function session_user() {
+	$header = '';
+	if (isset($_SERVER['HTTP_AUTHORIZATION'])) {
+		$header = $_SERVER['HTTP_AUTHORIZATION'];
+	} else if (isset($_SERVER['REDIRECT_HTTP_AUTHORIZATION'])) {
+		$header = $_SERVER['REDIRECT_HTTP_AUTHORIZATION'];
+	}
+	if (stripos($header, 'Bearer ') !== 0) {
+		return null;
+	}
+	$token = trim(substr($header, 7));
+	if (!preg_match('/^[A-Za-z0-9,-]{1,128}$/', $token)) {
+		return null;
+	}
+	session_id($token);
+	session_start();
+	$user = isset($_SESSION['username']) ? $_SESSION['username'] : null;
+	session_write_close();
+	return $user;
+}
+
+// starts a session for a user whose credentials were checked and answers its token
+function session_begin($username) {
+	session_start();
+	session_regenerate_id(true);
+	$_SESSION['username'] = $username;
+	echo session_id();
+}
+?>
\ No newline at end of file
@@ -0,0 +1,185 @@
+package fileforum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // import used for checking the deltas and the requests
+import static org.junit.jupiter.api.Assertions.assertFalse; // import used for checking patched deltas
+import static org.junit.jupiter.api.Assertions.assertTrue; // import used for checking full downloads
+
+import java.io.ByteArrayInputStream; // import used for the bodies of the stubbed answers
+import java.net.http.HttpHeaders; // import used for the headers of the stubbed answers
+import java.nio.charset.StandardCharsets; // import used for writing the posts database
+import java.util.ArrayList; // import used for the posts and the requests
+import java.util.Arrays; // import used for the ETag of the posts database
+import java.util.HashMap; // import used for the headers of the stubbed answers
+import java.util.List; // import used for the posts and the requests
+import java.util.Map; // import used for the headers of the requests and answers
+
+import org.junit.jupiter.api.BeforeEach; // import used for the first full download
+import org.junit.jupiter.api.Test; // import used for marking the tests
+
+/**
+ * The FeedCacheTest class checks how the cache patches its copy with Range requests, against a server stubbed in memory.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+class FeedCacheTest {
+    private static final String URL = "http://forum.test/posts.ndjson"; // the URL of the posts database
+
+    private final ArrayList<PostRecord> posts = new ArrayList<>(); // the posts on the server, newest first
+    private final StubTransport server = new StubTransport(); // answers the requests of the cache
+    private final FeedCache cache = new FeedCache(URL, server);
+
+    @BeforeEach
+    void download() throws Exception {
+        add(1, 100);
+        FeedCache.Delta delta = cache.fetch(null);
+        assertTrue(delta.replaced());
+        assertEquals(100, delta.added().size());
+        server.requests.clear();
+    }
+
+    @Test
+    void unchangedFeedIsNotDownloaded() throws Exception {
+        FeedCache.Delta delta = cache.fetch(null);
+        assertFalse(delta.replaced());
+        assertEquals(0, delta.added().size());
+        assertEquals(List.of("bytes=0-65535"), server.requests);
+    }
+
+    @Test
+    void deltaInsideTheWindowIsPatched() throws Exception {
+        add(101, 103);
+        FeedCache.Delta delta = cache.fetch(null);
+        assertFalse(delta.replaced());
+        assertEquals(List.of(103L, 102L, 101L), ids(delta.added()));
+        assertEquals(List.of("bytes=0-65535"), server.requests);
+
+        // the patched head still matches, so the next delta is patched too
+        add(104, 104);
+        server.requests.clear();
+        assertEquals(List.of(104L), ids(cache.fetch(null).added()));
+        assertEquals(List.of("bytes=0-65535"), server.requests);
+    }
+
+    @Test
+    void deltaPastTheWindowFetchesTheRest() throws Exception {
+        add(101, 1100);
+        FeedCache.Delta delta = cache.fetch(null);
+        assertFalse(delta.replaced());
+        assertEquals(1000, delta.added().size());
+        assertEquals(1100L, delta.added().get(0).id());
+        assertEquals(2, server.requests.size());
+        assertTrue(server.requests.get(1).startsWith("bytes=65536-"));
+    }
+
+    @Test
+    void rewrittenFileIsDownloadedAgain() throws Exception {
+        // an old post changes, so the bytes after the new ones no longer match the head
+        posts.set(0, new PostRecord(100, "alice", 100, "edited"));
+        add(101, 101);
+        FeedCache.Delta delta = cache.fetch(null);
+        assertTrue(delta.replaced());
+        assertEquals(101, delta.added().size());
+        assertEquals("edited", delta.added().get(1).body());
+        assertEquals(List.of("bytes=0-65535", "none"), server.requests);
+    }
+
+    @Test
+    void unsatisfiableRangeIsDownloadedAgain() throws Exception {
+        // the file shrank below the length of the last copy
+        posts.subList(0, 50).clear();
+        server.status = 416;
+        FeedCache.Delta delta = cache.fetch(null);
+        assertTrue(delta.replaced());
+        assertEquals(50, delta.added().size());
+        assertEquals(List.of("bytes=0-65535", "none"), server.requests);
+    }
+
+    @Test
+    void serverIgnoringRangeReplacesTheCopy() throws Exception {
+        add(101, 101);
+        server.status = 200;
+        FeedCache.Delta delta = cache.fetch(null);
+        assertTrue(delta.replaced());
+        assertEquals(101, delta.added().size());
+        assertEquals(List.of("bytes=0-65535"), server.requests);
+    }
+
+    /**
+     * Writes posts with consecutive ids in front of the posts database.
+     * @param first the id of the first post
+     * @param last the id of the last post
+     */
+    private void add(long first, long last) {
+        for (long id = first; id <= last; id++) {
+            posts.add(0, new PostRecord(id, "alice", id, "post number " + id + " with a body long enough to fill the window"));
+        }
+    }
+
+    /**
+     * @param records some posts
+     * @return their ids, in the same order
+     */
+    private static List<Long> ids(List<PostRecord> records) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (PostRecord record : records) {
+            ids.add(record.id());
+        }
+        return ids;
+    }
+
+    /**
+     * A server in memory holding the posts database, answering Range and conditional requests as a web server would.
+     */
+    private class StubTransport extends Transport {
+        private final ArrayList<String> requests = new ArrayList<>(); // the Range of every request, or "none"
+        private int status = 206; // the answer to Range requests: 206, or 416 or 200 for a server that will not give the range
+
+        StubTransport() {
+            super("test");
+        }
+
+        @Override
+        public Stream stream(String url, Map<String, String> headers) {
+            byte[] file = file();
+            String eTag = "\"" + file.length + "-" + Long.toHexString(Arrays.hashCode(file)) + "\"";
+            String range = headers.get("Range");
+            requests.add(range == null ? "none" : range);
+            HashMap<String, List<String>> answer = new HashMap<>();
+            answer.put("ETag", List.of(eTag));
+            if (eTag.equals(headers.get("If-None-Match"))) {
+                return new Stream(304, HttpHeaders.of(answer, (name, value) -> true), new ByteArrayInputStream(new byte[0]));
+            }
+            if (range == null || status == 200) {
+                return new Stream(200, HttpHeaders.of(answer, (name, value) -> true), new ByteArrayInputStream(file));
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int from = Integer.parseInt(bounds[0]);
+            int to = Math.min(Integer.parseInt(bounds[1]), file.length - 1);
+            if (status == 416 || from >= file.length) {
+                return new Stream(416, HttpHeaders.of(answer, (name, value) -> true), new ByteArrayInputStream(new byte[0]));
+            }
+            answer.put("Content-Range", List.of("bytes " + from + "-" + to + "/" + file.length));
+            return new Stream(206, HttpHeaders.of(answer, (name, value) -> true), new ByteArrayInputStream(file, from, to - from + 1));
+        }
+
+        @Override
+        public Response get(String url, Map<String, String> headers) throws Exception {
+            try (Stream answer = stream(url, headers)) {
+                return new Response(answer.status(), HttpHeaders.of(Map.of(), (name, value) -> true), answer.body().readAllBytes());
+            }
+        }
+
+        /**
+         * @return the posts database as the server holds it
+         */
+        private byte[] file() {
+            StringBuilder lines = new StringBuilder();
+            for (PostRecord post : posts) {
+                lines.append(post.toJson()).append('\n');
+            }
+            return lines.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
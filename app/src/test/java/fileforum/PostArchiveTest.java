@@ -0,0 +1,120 @@
+package fileforum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // import used for checking the archive
+import static org.junit.jupiter.api.Assertions.assertNull; // import used for checking deleted posts are gone
+
+import java.nio.file.DirectoryStream; // import used for finding the part files
+import java.nio.file.Files; // import used for copying a part file
+import java.nio.file.Path; // import used for the directory of the archive
+import java.util.ArrayList; // import used for the part files and the reader threads
+import java.util.List; // import used for the part files
+import java.util.concurrent.ConcurrentLinkedQueue; // import used for the errors of the reader threads
+import java.util.concurrent.atomic.AtomicBoolean; // import used for stopping the reader threads
+
+import org.junit.jupiter.api.Test; // import used for marking the tests
+import org.junit.jupiter.api.io.TempDir; // import used for a directory of the archive per test
+
+/**
+ * The PostArchiveTest class checks the archive stays readable while its parts are written again, and after a crash in the middle of it.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+class PostArchiveTest {
+    @TempDir
+    Path dir; // the directory of the archive
+
+    @Test
+    void readersOfReplacedPartsAreNotCutOff() throws Exception {
+        PostArchive archive = new PostArchive(dir);
+        long[] deleted = new long[20];
+        for (int p = 0; p < deleted.length; p++) {
+            write(archive, p * 100 + 1, p * 100 + 100);
+            deleted[p] = p * 100 + 50;
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        ArrayList<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread reader = new Thread(() -> {
+                while (!stop.get()) {
+                    try {
+                        long before = -1;
+                        do {
+                            before = archive.page("", before, 50, id -> false).next();
+                        } while (before >= 0);
+                        archive.find(1999);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                        return;
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        // every part holds a deleted id, so every prune writes every part again
+        for (int i = 0; i < 20; i++) {
+            archive.prune(Long.MIN_VALUE, deleted);
+        }
+        stop.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(List.of(), new ArrayList<>(errors));
+        assertEquals(2000 - deleted.length, archive.count());
+        archive.close();
+    }
+
+    @Test
+    void overlappingPartLeftByACrashIsDropped() throws Exception {
+        PostArchive archive = new PostArchive(dir);
+        write(archive, 1, 10);
+        Path old = parts().get(0);
+        Path saved = dir.resolve("saved");
+        Files.copy(old, saved);
+        archive.prune(Long.MIN_VALUE, new long[] {5});
+        archive.close();
+        // as if the server stopped after the new part was moved into place but before the old one was deleted
+        Files.move(saved, old);
+        assertEquals(2, parts().size());
+
+        archive = new PostArchive(dir);
+        assertEquals(9, archive.count());
+        assertNull(archive.find(5));
+        assertEquals(9, archive.page("", -1, 100, id -> false).posts().size());
+        assertEquals(1, parts().size());
+        archive.close();
+    }
+
+    /**
+     * Writes a part of posts with consecutive ids.
+     * @param archive the archive
+     * @param first the id of the first post
+     * @param last the id of the last post
+     * @throws Exception an error in writing the part
+     */
+    private static void write(PostArchive archive, long first, long last) throws Exception {
+        try (PostArchive.Writer writer = archive.writer()) {
+            for (long id = first; id <= last; id++) {
+                writer.add(new PostRecord(id, "alice", id * 1000, "post " + id));
+            }
+            writer.commit();
+        }
+        archive.archived(last);
+    }
+
+    /**
+     * @return the part files of the archive, in order
+     * @throws Exception an error in listing the directory
+     */
+    private List<Path> parts() throws Exception {
+        ArrayList<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "archive-*.arc")) {
+            files.forEach(found::add);
+        }
+        found.sort(null);
+        return found;
+    }
+}
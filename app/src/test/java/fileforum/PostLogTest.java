@@ -0,0 +1,85 @@
+package fileforum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // import used for checking the recovered log
+import static org.junit.jupiter.api.Assertions.assertTrue; // import used for checking every post was answered
+
+import java.nio.charset.StandardCharsets; // import used for writing the torn line
+import java.nio.file.DirectoryStream; // import used for finding the segment file
+import java.nio.file.Files; // import used for reading and writing the segment file
+import java.nio.file.Path; // import used for the directory of the log
+import java.nio.file.StandardOpenOption; // import used for appending the torn line
+import java.util.ArrayList; // import used for the posts and threads of the close test
+import java.util.concurrent.CompletableFuture; // import used for the posts of the close test
+import java.util.concurrent.ExecutionException; // import used for the posts failed by the close
+import java.util.concurrent.TimeUnit; // import used for waiting on the posts of the close test
+
+import org.junit.jupiter.api.Test; // import used for marking the tests
+import org.junit.jupiter.api.io.TempDir; // import used for a directory of the log per test
+
+/**
+ * The PostLogTest class checks that a log reopened after a crash drops the post left unfinished at its end, and that closing the log answers every post.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+class PostLogTest {
+    @TempDir
+    Path dir; // the directory of the log
+
+    @Test
+    void tornLastLineIsCutOff() throws Exception {
+        PostLog log = new PostLog(dir);
+        for (int i = 0; i < 3; i++) {
+            log.append("alice", "post " + i).join();
+        }
+        log.close();
+        Path segment;
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(dir, "posts-*.log")) {
+            segment = found.iterator().next();
+        }
+        long size = Files.size(segment);
+        Files.write(segment, "{\"id\":4,\"author\":\"al".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        log = new PostLog(dir);
+        PostLog.Snapshot snapshot = log.snapshot();
+        assertEquals(3, snapshot.count());
+        assertEquals(3, snapshot.lastId());
+        assertEquals(size, Files.size(segment));
+        assertEquals(4, log.append("bob", "after the crash").join().id());
+        assertEquals("after the crash", log.snapshot().record(3).body());
+        log.close();
+    }
+
+    @Test
+    void postsRacingCloseAreAllAnswered() throws Exception {
+        PostLog log = new PostLog(dir);
+        ArrayList<CompletableFuture<PostRecord>> posts = new ArrayList<>();
+        ArrayList<Thread> posters = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread poster = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    CompletableFuture<PostRecord> post = log.append("alice", "post " + i);
+                    synchronized (posts) {
+                        posts.add(post);
+                    }
+                }
+            });
+            poster.start();
+            posters.add(poster);
+        }
+        Thread.sleep(5);
+        log.close();
+        for (Thread poster : posters) {
+            poster.join();
+        }
+        for (CompletableFuture<PostRecord> post : posts) {
+            try {
+                post.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                // posts arriving after the close fail, but they are answered
+            }
+            assertTrue(post.isDone());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package fileforum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // import used for checking pages and counts
+import static org.junit.jupiter.api.Assertions.assertNull; // import used for checking deleted posts are gone
+import static org.junit.jupiter.api.Assertions.assertTrue; // import used for checking the tombstone file
+
+import java.nio.charset.StandardCharsets; // import used for reading the tombstone file
+import java.nio.file.Files; // import used for reading the tombstone file
+import java.nio.file.Path; // import used for the directory of the board
+import java.util.ArrayList; // import used for the ids of a whole board
+import java.util.List; // import used for the ids of a whole board
+import java.util.concurrent.CompletableFuture; // import used for waiting on the posts
+
+import org.junit.jupiter.api.AfterEach; // import used for closing the board
+import org.junit.jupiter.api.BeforeEach; // import used for opening the board
+import org.junit.jupiter.api.Test; // import used for marking the tests
+import org.junit.jupiter.api.io.TempDir; // import used for a directory of the board per test
+
+/**
+ * The ShardTest class checks that pages, searches and lookups carry on across the hot posts and the archive, and that compaction drops deleted and expired posts.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+class ShardTest {
+    @TempDir
+    Path dir; // the directory of the board
+    private Shard shard; // the board under test
+
+    @BeforeEach
+    void open() throws Exception {
+        shard = new Shard(dir, "test");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        shard.close();
+    }
+
+    @Test
+    void pagesSearchesAndLookupsCrossIntoTheArchive() throws Exception {
+        post(1, 300);
+        archiveEverything();
+        assertEquals(0, shard.posts().snapshot().count());
+        assertEquals(300, shard.archive().count());
+        post(301, 350);
+
+        assertEquals(ids(350, 1, 1), all(null));
+        assertEquals(ids(350, 1, 7), all("seven"));
+        assertEquals(100, shard.find(100).id());
+        assertEquals(340, shard.find(340).id());
+        assertNull(shard.find(351));
+    }
+
+    @Test
+    void deletedPostsArePrunedFromTheArchive() throws Exception {
+        post(1, 100);
+        shard.delete(3);
+        archiveEverything();
+        assertEquals(99, shard.archive().count());
+        assertTrue(tombstones().isEmpty());
+
+        post(101, 110);
+        shard.delete(50);
+        shard.delete(105);
+        assertNull(shard.find(50));
+        assertNull(shard.find(105));
+        assertEquals(107, all(null).size());
+        shard.compact(0, Long.MIN_VALUE);
+        assertEquals(98, shard.archive().count());
+        // the post still in the log keeps its tombstone
+        assertEquals(List.of("105"), tombstones());
+
+        shard.close();
+        shard = new Shard(dir, "test");
+        assertEquals(107, all(null).size());
+        assertNull(shard.find(105));
+        assertEquals(111, shard.posts().append("alice", "after the restart").join().id());
+    }
+
+    @Test
+    void retentionDropsOldPosts() throws Exception {
+        post(1, 100);
+        archiveEverything();
+        post(101, 120);
+        shard.compact(0, System.currentTimeMillis() + 1000);
+        assertEquals(0, shard.archive().count());
+        assertEquals(ids(120, 101, 1), all(null));
+        assertNull(shard.find(50));
+    }
+
+    /**
+     * Writes posts with consecutive ids, the ones divisible by seven saying so, and waits until they are indexed.
+     * @param first the id the first post gets
+     * @param last the id the last post gets
+     * @throws Exception an error in writing the posts
+     */
+    private void post(long first, long last) throws Exception {
+        ArrayList<CompletableFuture<PostRecord>> written = new ArrayList<>();
+        for (long id = first; id <= last; id++) {
+            written.add(shard.posts().append("alice", (id % 7 == 0 ? "seven " : "post ") + id));
+        }
+        for (CompletableFuture<PostRecord> post : written) {
+            post.join();
+        }
+        assertEquals(last, written.get(written.size() - 1).join().id());
+        while (shard.index().newestId() < last) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Moves every post in the log into the archive: the first compaction seals the newest segment, the second moves it.
+     * @throws Exception an error in compacting
+     */
+    private void archiveEverything() throws Exception {
+        long hot = System.currentTimeMillis() + 10000;
+        shard.compact(hot, Long.MIN_VALUE);
+        shard.compact(hot, Long.MIN_VALUE);
+    }
+
+    /**
+     * Pages through the whole board, a few posts at a time.
+     * @param query the text to search for, or null for every post
+     * @return the ids of the posts, newest first
+     * @throws Exception an error in reading the board
+     */
+    private List<Long> all(String query) throws Exception {
+        ArrayList<Long> ids = new ArrayList<>();
+        long before = -1;
+        do {
+            PostPage page = query == null ? shard.page(before, 17) : shard.search(query, before, 17);
+            for (PostRecord post : page.posts()) {
+                ids.add(post.id());
+            }
+            before = page.next();
+        } while (before >= 0);
+        return ids;
+    }
+
+    /**
+     * @param from the newest id
+     * @param to the oldest id
+     * @param every the step between ids, counting from 0
+     * @return the ids between from and to divisible by every, newest first
+     */
+    private static List<Long> ids(long from, long to, long every) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (long id = from; id >= to; id--) {
+            if (id % every == 0) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the lines of the tombstone file that are not blank
+     * @throws Exception an error in reading the file
+     */
+    private List<String> tombstones() throws Exception {
+        ArrayList<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(dir.resolve("tombstones.txt"), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                lines.add(line.trim());
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,70 @@
+package fileforum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // import used for checking the answers
+import static org.junit.jupiter.api.Assertions.assertThrows; // import used for checking broken answers fail
+
+import com.sun.net.httpserver.HttpServer; // import used for a server answering with a broken gzip body
+
+import java.io.IOException; // import used for the error of a broken answer
+import java.io.OutputStream; // import used for writing the answers
+import java.net.InetSocketAddress; // import used for starting the server
+import java.nio.charset.StandardCharsets; // import used for the body of the answers
+import java.util.Map; // import used for passing no request headers
+
+import org.junit.jupiter.api.AfterEach; // import used for stopping the server
+import org.junit.jupiter.api.BeforeEach; // import used for starting the server
+import org.junit.jupiter.api.Test; // import used for marking the tests
+
+/**
+ * The TransportTest class checks that answers naming an encoding they do not have fail cleanly, and that empty ones pass.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+class TransportTest {
+    private HttpServer server; // answers every request with "Content-Encoding: gzip"
+    private String base; // the URL of the server
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/broken", exchange -> {
+            byte[] body = "not gzip at all".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/empty", exchange -> {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        });
+        server.start();
+        base = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void brokenGzipFails() throws Exception {
+        Transport transport = new Transport("test");
+        assertThrows(IOException.class, () -> transport.stream(base + "/broken", Map.of()));
+        assertThrows(IOException.class, () -> transport.get(base + "/broken", Map.of()));
+        // the connection is still usable after the broken answers
+        assertEquals(304, transport.get(base + "/empty", Map.of()).status());
+    }
+
+    @Test
+    void emptyBodyPassesWhateverItsEncoding() throws Exception {
+        Transport transport = new Transport("test");
+        Transport.Response response = transport.get(base + "/empty", Map.of());
+        assertEquals(304, response.status());
+        assertEquals(0, response.body().length);
+    }
+}
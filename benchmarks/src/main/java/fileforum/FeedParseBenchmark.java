@@ -0,0 +1,71 @@
+package fileforum;
+
+import org.openjdk.jmh.annotations.*; // import used for declaring the benchmarks
+
+import java.io.*; // import used for reading the feeds
+import java.nio.charset.StandardCharsets; // import used for decoding the legacy feed
+import java.util.ArrayList; // import used for collecting posts
+import java.util.List; // import used for returning posts
+import java.util.concurrent.TimeUnit; // import used for reporting times
+
+/**
+ * The FeedParseBenchmark class measures turning a downloaded feed into posts.
+ *      legacyLines - the first version's getPost: reading posts.txt line by line into one String, then splitting it into posts
+ *      parseArray  - FeedParser.parse over the whole download in memory, as FeedCache does with a fetched body
+ *      parseStream - a FeedParser reading from a stream, as the posts arrive, as FeedStore does with the copy on disk
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FeedParseBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size; // the number of posts in the feed
+
+    private byte[] legacy; // the feed as posts.txt
+    private byte[] ndjson; // the feed as posts.ndjson
+
+    /**
+     * Generates the feeds once for every size.
+     */
+    @Setup
+    public void setup() {
+        SyntheticFeed feed = new SyntheticFeed(size);
+        legacy = feed.legacy();
+        ndjson = feed.ndjson();
+    }
+
+    @Benchmark
+    public String[] legacyLines() throws IOException {
+        StringBuilder result = new StringBuilder();
+        BufferedReader rd = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(legacy), StandardCharsets.UTF_8));
+        String line;
+        while ((line = rd.readLine()) != null) {
+            result.append(line);
+        }
+        rd.close();
+        return result.toString().split("<br /><br />");
+    }
+
+    @Benchmark
+    public List<PostRecord> parseArray() throws IOException {
+        return FeedParser.parse(ndjson, 0, ndjson.length);
+    }
+
+    @Benchmark
+    public List<PostRecord> parseStream() throws IOException {
+        FeedParser parser = new FeedParser(new ByteArrayInputStream(ndjson));
+        ArrayList<PostRecord> posts = new ArrayList<>();
+        PostRecord post;
+        while ((post = parser.next()) != null) {
+            posts.add(post);
+        }
+        return posts;
+    }
+}
@@ -0,0 +1,114 @@
+package fileforum;
+
+import org.openjdk.jmh.annotations.*; // import used for declaring the benchmarks
+
+import javax.swing.*; // import used for the components being measured
+import java.awt.*; // import used for painting
+import java.awt.image.BufferedImage; // import used for painting off screen
+import java.nio.charset.StandardCharsets; // import used for decoding the legacy feed
+import java.util.concurrent.TimeUnit; // import used for reporting times
+
+/**
+ * The RenderBenchmark class measures showing the whole board and painting the first screen of it.
+ *      legacyHtml - the first version: the feed as one HTML document in a JEditorPane, laid out and painted
+ *      postList   - the PostList class: the posts handed to the list, and only the rows on screen measured and painted
+ * Everything runs headless and paints into an image of the size of the list on screen.
+ * The HTML document grows with the whole board and its layout cost grows faster than the board does: seconds at a thousand posts, minutes at ten thousand.
+ * legacyHtml is therefore timed one call at a time and only runs at a thousand posts by default; pass -p size=10000 to time it at more.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-Djava.awt.headless=true"})
+public class RenderBenchmark {
+    private static final int WIDTH = 540; // the width of the list on screen
+    private static final int HEIGHT = 600; // the height of the list on screen
+
+    private final BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB); // the image painted into
+
+    /**
+     * The board shown by the PostList class.
+     */
+    @State(Scope.Benchmark)
+    public static class Board {
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int size; // the number of posts on the board
+
+        private SyntheticFeed feed; // the board
+
+        /**
+         * Generates the board once for every size.
+         */
+        @Setup
+        public void setup() {
+            feed = new SyntheticFeed(size);
+        }
+    }
+
+    /**
+     * The board shown as one HTML document, by default only at the size that finishes in reasonable time.
+     */
+    @State(Scope.Benchmark)
+    public static class LegacyBoard {
+        @Param({"1000"})
+        public int size; // the number of posts on the board
+
+        private String html; // the feed as the first version showed it
+
+        /**
+         * Generates the board once for every size.
+         */
+        @Setup
+        public void setup() {
+            SyntheticFeed feed = new SyntheticFeed(size);
+            html = String.format("<html><div style=\"width:%dpx;\">%s</div><html>", 400, new String(feed.legacy(), StandardCharsets.UTF_8).replace("\n", ""));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int legacyHtml(LegacyBoard board) {
+        JEditorPane postsText = new JEditorPane();
+        postsText.setContentType("text/html");
+        postsText.setEditable(false);
+        postsText.setText(board.html);
+        postsText.setSize(WIDTH, Short.MAX_VALUE);
+        int height = postsText.getPreferredSize().height;
+        postsText.setSize(WIDTH, height);
+        paint(postsText);
+        return height;
+    }
+
+    @Benchmark
+    public int postList(Board board) {
+        PostList list = new PostList();
+        list.setSize(WIDTH, HEIGHT);
+        list.setPosts(board.feed.posts());
+        list.doLayout();
+        list.getViewport().doLayout();
+        paint(list);
+        return list.getViewport().getView().getPreferredSize().height;
+    }
+
+    /**
+     * Paints the part of a component that fits on screen.
+     * @param component the component
+     */
+    private void paint(JComponent component) {
+        Graphics2D g = screen.createGraphics();
+        try {
+            g.setClip(0, 0, WIDTH, HEIGHT);
+            component.paint(g);
+        } finally {
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package fileforum;
+
+import org.openjdk.jmh.annotations.*; // import used for declaring the benchmarks
+
+import java.nio.charset.StandardCharsets; // import used for decoding the legacy feed
+import java.util.ArrayList; // import used for collecting matches
+import java.util.List; // import used for returning matches
+import java.util.concurrent.TimeUnit; // import used for reporting times
+
+/**
+ * The SearchBenchmark class measures searching the board for a word found in about one post in a hundred.
+ *      legacyFilter - the first version's SearchListener: splitting the feed into posts, keeping those containing the text, and joining them with String concatenation
+ *      indexAll     - FeedIndex.search for every match, as the client does for servers without api/search.php
+ *      indexPage    - FeedIndex.search for the first page of matches, as api/search.php does
+ *      indexMissing - FeedIndex.search for a word in no post, which only costs a lookup
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SearchBenchmark {
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size; // the number of posts on the board
+
+    private String legacy; // the feed as the first version held it, every line of posts.txt joined
+    private FeedIndex index; // the search index of the board
+
+    /**
+     * Generates the board and indexes it once for every size.
+     */
+    @Setup
+    public void setup() {
+        SyntheticFeed feed = new SyntheticFeed(size);
+        legacy = new String(feed.legacy(), StandardCharsets.UTF_8).replace("\n", "");
+        index = new FeedIndex();
+        index.append(feed.oldestFirst());
+    }
+
+    @Benchmark
+    public String legacyFilter() {
+        String[] posts = legacy.split("<br /><br />");
+        ArrayList<String> matching = new ArrayList<>();
+        for (String post : posts) {
+            if (post.contains(SyntheticFeed.RARE)) {
+                matching.add(post);
+            }
+        }
+        String filtered = "";
+        for (String post : matching) {
+            filtered += post + "<br /><br />";
+        }
+        return String.format("<html><div style=\"width:%dpx;\">%s</div><html>", 400, filtered);
+    }
+
+    @Benchmark
+    public List<PostRecord> indexAll() {
+        return index.search(SyntheticFeed.RARE);
+    }
+
+    @Benchmark
+    public PostPage indexPage() {
+        return index.search(SyntheticFeed.RARE, -1, 100);
+    }
+
+    @Benchmark
+    public List<PostRecord> indexMissing() {
+        return index.search(SyntheticFeed.MISSING);
+    }
+}
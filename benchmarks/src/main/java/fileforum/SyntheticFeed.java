@@ -0,0 +1,105 @@
+package fileforum;
+
+import java.nio.charset.StandardCharsets; // import used for encoding the feeds
+import java.text.SimpleDateFormat; // import used for formatting timestamps the way the first version did
+import java.util.ArrayList; // import used for holding the posts
+import java.util.Collections; // import used for ordering the posts oldest first
+import java.util.List; // import used for holding the posts
+import java.util.Random; // import used for generating the posts
+
+/**
+ * The SyntheticFeed class generates a board of posts for the benchmarks, the same every time for the same number of posts.
+ * Posts are 5 to 30 words long, drawn from a vocabulary of a few thousand words, by one of 500 users.
+ * The word "fileforum" is in about one post in a hundred, so searches for it match a realistic share of the board.
+ *
+ * ### FORMATS ###
+ * The feed is available in the two formats the program has used:
+ *      ndjson - posts.ndjson, one line of JSON per post, newest first (see the PostRecord class)
+ *      legacy - posts.txt of the first version, where every post was "body&lt;br /&gt;-author date&lt;br /&gt;&lt;br /&gt;" and the client read it line by line
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class SyntheticFeed {
+    public static final String RARE = "fileforum"; // the word in about one post in a hundred
+    public static final String MISSING = "zzyzx"; // a word in no post
+
+    private final List<PostRecord> posts; // the posts, newest first
+
+    /**
+     * Constructor method which generates a board of posts.
+     * @param size the number of posts
+     */
+    public SyntheticFeed(int size) {
+        Random random = new Random(42);
+        String[] words = new String[4000];
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words[i] = word.toString();
+        }
+        ArrayList<PostRecord> generated = new ArrayList<>(size);
+        long time = 1552176000000L;
+        for (int id = 1; id <= size; id++) {
+            StringBuilder body = new StringBuilder();
+            int length = 5 + random.nextInt(26);
+            for (int j = 0; j < length; j++) {
+                if (j > 0) {
+                    body.append(' ');
+                }
+                // common words come up far more often than rare ones, as in real text
+                body.append(words[(int) (words.length * Math.pow(random.nextDouble(), 3))]);
+            }
+            if (random.nextInt(100) == 0) {
+                body.append(' ').append(RARE);
+            }
+            time += random.nextInt(60000);
+            generated.add(new PostRecord(id, "user" + random.nextInt(500), time, body.toString()));
+        }
+        Collections.reverse(generated);
+        posts = generated;
+    }
+
+    /**
+     * @return the posts, newest first
+     */
+    public List<PostRecord> posts() {
+        return posts;
+    }
+
+    /**
+     * @return the posts, oldest first, the order the FeedIndex class takes them in
+     */
+    public List<PostRecord> oldestFirst() {
+        ArrayList<PostRecord> oldest = new ArrayList<>(posts);
+        Collections.reverse(oldest);
+        return oldest;
+    }
+
+    /**
+     * @return the feed as posts.ndjson
+     */
+    public byte[] ndjson() {
+        StringBuilder feed = new StringBuilder(posts.size() * 128);
+        for (PostRecord post : posts) {
+            feed.append(post.toJson()).append('\n');
+        }
+        return feed.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the feed as the posts.txt of the first version, as PHP's nl2br wrote it
+     */
+    public byte[] legacy() {
+        SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/YY 'at' HH:mm:ss");
+        StringBuilder feed = new StringBuilder(posts.size() * 160);
+        for (PostRecord post : posts) {
+            feed.append(post.body()).append("<br />\n-").append(post.author()).append(' ').append(sdf.format(post.time())).append("<br />\n<br />\n");
+        }
+        return feed.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
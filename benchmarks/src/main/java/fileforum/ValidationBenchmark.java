@@ -0,0 +1,36 @@
+package fileforum;
+
+import org.openjdk.jmh.annotations.*; // import used for declaring the benchmarks
+
+import java.util.concurrent.TimeUnit; // import used for reporting times
+import java.util.regex.Pattern; // import used for compiling the pattern on every call
+
+/**
+ * The ValidationBenchmark class measures checking a username or password for characters that are not allowed.
+ *      compileEveryCall - the first version's Driver.isValid, which compiled the pattern on every call
+ *      driverIsValid    - Driver.isValid as it is, with the pattern compiled once
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ValidationBenchmark {
+    @Param({"alice", "correct.horse-battery_staple(42)"})
+    public String input; // the username or password to check
+
+    @Benchmark
+    public boolean compileEveryCall() {
+        return Pattern.compile("[a-zA-Z0-9!.,$+\\-*()_]+").matcher(input).matches();
+    }
+
+    @Benchmark
+    public boolean driverIsValid() {
+        return Driver.isValid(input);
+    }
+}
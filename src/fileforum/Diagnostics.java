@@ -0,0 +1,703 @@
+package fileforum;
+
+import jdk.jfr.*; // import used for recording requests and operations as Flight Recorder events
+
+import javax.management.ObjectName; // import used for naming the diagnostics in JMX
+import java.beans.ConstructorProperties; // import used for mapping the numbers of an operation to JMX open types
+import java.io.*; // import used for metering answers as they are read
+import java.lang.management.ManagementFactory; // import used for registering the diagnostics in JMX
+
+import java.util.*; // import used for the snapshot of every operation
+import java.util.concurrent.ConcurrentHashMap; // import used for the numbers of each operation
+import java.util.concurrent.atomic.AtomicLongArray; // import used for the latency histograms
+import java.util.concurrent.atomic.LongAccumulator; // import used for the longest latency
+import java.util.concurrent.atomic.LongAdder; // import used for the counters
+
+/**
+ * The Diagnostics class keeps the numbers that tell where the time of the program goes: in the network, in parsing posts or in showing them.
+ * It is shared by the whole program; the ForumClient, Transport, FeedCache, FeedParser and PostList classes report to it as they work.
+ *
+ * ### OPERATIONS ###
+ * Every request the program makes (logging in, signing up, fetching posts, posting, ...) is an operation, named after the method of the ForumClient class that runs it.
+ * An operation is timed from start to end with begin and close, on the thread that runs it. Everything reported on that thread in the meantime belongs to it:
+ *      network - the time spent waiting for the server: until the headers of each answer arrive, and while reading its body
+ *      parse   - the time spent turning the posts database into posts (see the FeedParser class), not counting the time waiting for more of it
+ *      bytes   - the bytes sent and received, as they went over the wire (before the answer is decompressed)
+ *      cache   - the hits and misses of the caches the operation asked: the conditional fetches of the FeedCache class, and the remembered contact with the server
+ *      error   - the exception the operation failed with, and the exceptions behind it
+ * What is left of the latency of an operation is spent in the program itself, e.g. searching the index or writing the copy on disk.
+ * Showing posts is an operation of its own: "render" for handing them to the list, "paint" for drawing the rows on screen.
+ * An operation started while another is running on the same thread, such as checking the server before a login, is counted on its own, and its network and parse time count towards the outer one too.
+ *
+ * ### NUMBERS ###
+ * For each operation the number of calls and errors, the bytes, the cache hits and misses and the total time of each kind are counted, and the latencies are kept in a histogram.
+ * The histogram has a bucket for each power of two microseconds, so it costs the same however many calls are counted; percentiles are read from it to within their bucket.
+ *
+ * ### OUTPUT ###
+ * The numbers are shown by the hidden diagnostics panel of the Screen class (Ctrl+Shift+D), and published to JMX as fileforum:type=Diagnostics for tools such as JConsole.
+ * Every HTTP request and every operation is also recorded as a Flight Recorder event (fileforum.Request and fileforum.Operation), which cost nothing unless a recording is running:
+ *      java -XX:StartFlightRecording=filename=forum.jfr -jar app/target/fileforum.jar
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class Diagnostics {
+    private static final int BUCKETS = 36; // the number of buckets of the histograms: bucket i holds latencies below 2^i microseconds
+    private static final String NAME = "fileforum:type=Diagnostics"; // the name of the diagnostics in JMX
+
+    private static final ConcurrentHashMap<String, Stats> STATS = new ConcurrentHashMap<>(); // the numbers of each operation, by name
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>(); // the innermost operation running on each thread
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(NAME));
+        } catch (Exception e) {
+            // without JMX the numbers are still shown by the diagnostics panel
+        }
+    }
+
+    /**
+     * Starts timing an operation on the current thread.
+     * The caller must close the span, on the same thread, once the operation is over.
+     * @param operation the name of the operation
+     * @return the span of the operation
+     */
+    public static Span begin(String operation) {
+        Span span = new Span(operation, CURRENT.get());
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Times an operation that runs on the current thread from start to end, counting it as failed if it throws.
+     * @param operation the name of the operation
+     * @param work the operation
+     */
+    public static void time(String operation, Runnable work) {
+        try (Span span = begin(operation)) {
+            try {
+                work.run();
+            } catch (RuntimeException | Error e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Counts time spent parsing towards the operation running on the current thread, if any.
+     * @param nanos the time spent, in nanoseconds
+     */
+    public static void parse(long nanos) {
+        Span span = CURRENT.get();
+        if (span != null) {
+            span.parse += nanos;
+        }
+    }
+
+    /**
+     * Counts a hit or miss of a cache towards the operation running on the current thread, if any.
+     * @param hit true if the cache could answer without the server sending the data again
+     */
+    public static void cache(boolean hit) {
+        Span span = CURRENT.get();
+        if (span != null) {
+            if (hit) {
+                span.hits++;
+            } else {
+                span.misses++;
+            }
+        }
+    }
+
+    /**
+     * Starts timing an HTTP request, on behalf of the operation running on the current thread, if any.
+     * @param method the method of the request
+     * @param url the URL of the request
+     * @param bytesOut the length of the body of the request, or 0 if there is none
+     * @return the exchange, to be told when the answer arrives or the request fails
+     */
+    public static Exchange request(String method, String url, long bytesOut) {
+        return new Exchange(CURRENT.get(), method, url, Math.max(0, bytesOut));
+    }
+
+    /**
+     * Describes an error with every exception behind it, e.g. "ConnectException: Cannot contact server / ConnectException: Connection refused".
+     * @param error the error
+     * @return the description
+     */
+    public static String describe(Throwable error) {
+        StringBuilder text = new StringBuilder();
+        for (Throwable e = ForumClient.cause(error); e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (text.length() > 0) {
+                text.append(" / ");
+            }
+            text.append(e.getClass().getSimpleName());
+            if (e.getMessage() != null) {
+                text.append(": ").append(e.getMessage());
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the numbers of every operation counted so far, by name
+     */
+    public static List<OperationStats> snapshot() {
+        ArrayList<OperationStats> all = new ArrayList<>();
+        for (Stats stats : new TreeMap<>(STATS).values()) {
+            all.add(stats.snapshot());
+        }
+        return all;
+    }
+
+    /**
+     * Forgets every number counted so far.
+     */
+    public static void reset() {
+        STATS.clear();
+    }
+
+    /**
+     * One run of an operation on a thread, collecting what is reported while it runs.
+     */
+    public static class Span implements AutoCloseable {
+        private final String operation; // the name of the operation
+        private final Span outer; // the operation this one runs inside, or null
+        private final long start = System.nanoTime(); // the time the operation started, from System.nanoTime
+        private final OperationEvent event = new OperationEvent(); // the Flight Recorder event of the operation
+        private long network; // the time spent waiting for the server, in nanoseconds
+        private long parse; // the time spent parsing, in nanoseconds
+        private long bytesIn; // the bytes received
+        private long bytesOut; // the bytes sent
+        private int hits; // the number of cache hits
+        private int misses; // the number of cache misses
+        private Throwable error; // the error the operation failed with, or null
+        private boolean closed; // true once the span has been counted
+
+        /**
+         * @param operation the name of the operation
+         * @param outer the operation this one runs inside, or null
+         */
+        private Span(String operation, Span outer) {
+            this.operation = operation;
+            this.outer = outer;
+            event.begin();
+        }
+
+        /**
+         * Marks the operation as failed.
+         * @param error the error it failed with
+         */
+        public void fail(Throwable error) {
+            this.error = error;
+        }
+
+        /**
+         * Ends the operation and counts it.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            long latency = System.nanoTime() - start;
+            CURRENT.set(outer);
+            if (outer != null) {
+                outer.network += network;
+                outer.parse += parse;
+            }
+            STATS.computeIfAbsent(operation, Stats::new).add(this, latency);
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.network = network;
+                event.parse = parse;
+                event.bytesIn = bytesIn;
+                event.bytesOut = bytesOut;
+                event.cacheHits = hits;
+                event.cacheMisses = misses;
+                event.error = error == null ? null : describe(error);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * One HTTP request, from sending it until its answer has been read.
+     */
+    public static class Exchange {
+        private final Span span; // the operation the request was sent for, or null
+        private final RequestEvent event = new RequestEvent(); // the Flight Recorder event of the request
+        private final long start = System.nanoTime(); // the time the request was sent, from System.nanoTime
+        private long bytesIn; // the bytes of the answer read so far
+        private boolean done; // true once the request has been counted
+
+        /**
+         * @param span the operation the request is sent for, or null
+         * @param method the method of the request
+         * @param url the URL of the request
+         * @param bytesOut the length of the body of the request
+         */
+        private Exchange(Span span, String method, String url, long bytesOut) {
+            this.span = span;
+            event.begin();
+            event.operation = span == null ? null : span.operation;
+            event.method = method;
+            event.url = url;
+            event.bytesOut = bytesOut;
+            event.status = -1;
+            if (span != null) {
+                span.bytesOut += bytesOut;
+            }
+        }
+
+        /**
+         * Counts the wait for the headers of the answer, and hands back its body metered, so reading it is counted as well.
+         * @param status the response code
+         * @param body the body of the answer as it comes over the wire
+         * @return the body, which the caller reads and closes as usual
+         */
+        public InputStream answered(int status, InputStream body) {
+            event.status = status;
+            if (span != null) {
+                span.network += System.nanoTime() - start;
+            }
+            return new Meter(body);
+        }
+
+        /**
+         * Ends a request that got no answer.
+         * @param error the error it failed with
+         */
+        public void failed(Throwable error) {
+            if (span != null) {
+                span.network += System.nanoTime() - start;
+            }
+            event.error = describe(error);
+            finish();
+        }
+
+        /**
+         * Records the event of the request once it is over.
+         */
+        private void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            event.end();
+            if (event.shouldCommit()) {
+                event.bytesIn = bytesIn;
+                event.commit();
+            }
+        }
+
+        /**
+         * Passes the body of an answer through while counting its bytes and the time spent waiting for them.
+         */
+        private class Meter extends FilterInputStream {
+
+            /**
+             * @param in the body of the answer as it comes over the wire
+             */
+            Meter(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                long started = System.nanoTime();
+                int b = super.read();
+                count(started, b < 0 ? 0 : 1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long started = System.nanoTime();
+                int read = super.read(b, off, len);
+                count(started, Math.max(read, 0));
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    finish();
+                }
+            }
+
+            /**
+             * Counts one read of the body.
+             * @param started the time the read started, from System.nanoTime
+             * @param read the number of bytes read
+             */
+            private void count(long started, int read) {
+                bytesIn += read;
+                if (span != null && !span.closed) {
+                    span.network += System.nanoTime() - started;
+                    span.bytesIn += read;
+                }
+            }
+        }
+    }
+
+    /**
+     * The numbers of one operation, counted across every thread.
+     */
+    private static class Stats {
+        private final String operation; // the name of the operation
+        private final LongAdder count = new LongAdder(); // the number of calls
+        private final LongAdder errors = new LongAdder(); // the number of calls that failed
+        private final LongAdder total = new LongAdder(); // the total latency, in nanoseconds
+        private final LongAdder network = new LongAdder(); // the total time spent waiting for the server, in nanoseconds
+        private final LongAdder parse = new LongAdder(); // the total time spent parsing, in nanoseconds
+        private final LongAdder bytesIn = new LongAdder(); // the bytes received
+        private final LongAdder bytesOut = new LongAdder(); // the bytes sent
+        private final LongAdder hits = new LongAdder(); // the number of cache hits
+        private final LongAdder misses = new LongAdder(); // the number of cache misses
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0); // the longest latency, in nanoseconds
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS); // the number of latencies in each bucket
+        private volatile String lastError; // the description of the last error, or null
+
+        /**
+         * @param operation the name of the operation
+         */
+        Stats(String operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Counts a call of the operation.
+         * @param span what was reported while the call ran
+         * @param latency the time the call took, in nanoseconds
+         */
+        void add(Span span, long latency) {
+            count.increment();
+            total.add(latency);
+            network.add(span.network);
+            parse.add(span.parse);
+            bytesIn.add(span.bytesIn);
+            bytesOut.add(span.bytesOut);
+            hits.add(span.hits);
+            misses.add(span.misses);
+            max.accumulate(latency);
+            histogram.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latency / 1000)));
+            if (span.error != null) {
+                errors.increment();
+                lastError = describe(span.error);
+            }
+        }
+
+        /**
+         * @return the numbers of the operation as they are now
+         */
+        OperationStats snapshot() {
+            long[] buckets = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+                n += buckets[i];
+            }
+            long calls = Math.max(1, count.sum());
+            double longest = max.get() / 1e6;
+            return new OperationStats(operation, count.sum(), errors.sum(), Math.min(longest, percentile(buckets, n, 0.50)), Math.min(longest, percentile(buckets, n, 0.90)),
+                    Math.min(longest, percentile(buckets, n, 0.99)), longest, total.sum() / 1e6 / calls, network.sum() / 1e6 / calls, parse.sum() / 1e6 / calls,
+                    bytesIn.sum(), bytesOut.sum(), hits.sum(), misses.sum(), lastError);
+        }
+
+        /**
+         * Reads a percentile from a histogram, assuming the latencies are spread evenly within each bucket.
+         * @param buckets the number of latencies in each bucket
+         * @param n the number of latencies in every bucket
+         * @param p the share of latencies below the percentile, from 0 to 1
+         * @return the percentile, in milliseconds, or 0 if there are no latencies
+         */
+        private static double percentile(long[] buckets, long n, double p) {
+            if (n == 0) {
+                return 0;
+            }
+            double rank = p * n;
+            long below = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (below + buckets[i] >= rank && buckets[i] > 0) {
+                    double low = i == 0 ? 0 : 1L << (i - 1);
+                    double high = 1L << i;
+                    return (low + (high - low) * (rank - below) / buckets[i]) / 1000;
+                }
+                below += buckets[i];
+            }
+            return (1L << (BUCKETS - 1)) / 1000.0;
+        }
+    }
+
+    /**
+     * The numbers of one operation at one moment, as shown by the diagnostics panel and published to JMX.
+     */
+    public static class OperationStats {
+        private final String operation; // the name of the operation
+        private final long count; // the number of calls
+        private final long errors; // the number of calls that failed
+        private final double p50; // the median latency, in milliseconds
+        private final double p90; // the 90th percentile of latency, in milliseconds
+        private final double p99; // the 99th percentile of latency, in milliseconds
+        private final double max; // the longest latency, in milliseconds
+        private final double mean; // the mean latency, in milliseconds
+        private final double network; // the mean time spent waiting for the server, in milliseconds
+        private final double parse; // the mean time spent parsing, in milliseconds
+        private final long bytesIn; // the bytes received
+        private final long bytesOut; // the bytes sent
+        private final long cacheHits; // the number of cache hits
+        private final long cacheMisses; // the number of cache misses
+        private final String lastError; // the description of the last error, or null
+
+        /**
+         * Constructor method which holds the numbers of an operation.
+         * @param operation the name of the operation
+         * @param count the number of calls
+         * @param errors the number of calls that failed
+         * @param p50 the median latency, in milliseconds
+         * @param p90 the 90th percentile of latency, in milliseconds
+         * @param p99 the 99th percentile of latency, in milliseconds
+         * @param max the longest latency, in milliseconds
+         * @param mean the mean latency, in milliseconds
+         * @param network the mean time spent waiting for the server, in milliseconds
+         * @param parse the mean time spent parsing, in milliseconds
+         * @param bytesIn the bytes received
+         * @param bytesOut the bytes sent
+         * @param cacheHits the number of cache hits
+         * @param cacheMisses the number of cache misses
+         * @param lastError the description of the last error, or null
+         */
+        @ConstructorProperties({"operation", "count", "errors", "p50", "p90", "p99", "max", "mean", "network", "parse", "bytesIn", "bytesOut", "cacheHits", "cacheMisses", "lastError"})
+        public OperationStats(String operation, long count, long errors, double p50, double p90, double p99, double max, double mean, double network, double parse,
+                              long bytesIn, long bytesOut, long cacheHits, long cacheMisses, String lastError) {
+            this.operation = operation;
+            this.count = count;
+            this.errors = errors;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+            this.mean = mean;
+            this.network = network;
+            this.parse = parse;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+            this.lastError = lastError;
+        }
+
+        /**
+         * @return the name of the operation
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the number of calls
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of calls that failed
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the median latency, in milliseconds
+         */
+        public double getP50() {
+            return p50;
+        }
+
+        /**
+         * @return the 90th percentile of latency, in milliseconds
+         */
+        public double getP90() {
+            return p90;
+        }
+
+        /**
+         * @return the 99th percentile of latency, in milliseconds
+         */
+        public double getP99() {
+            return p99;
+        }
+
+        /**
+         * @return the longest latency, in milliseconds
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * @return the mean latency, in milliseconds
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the mean time spent waiting for the server, in milliseconds
+         */
+        public double getNetwork() {
+            return network;
+        }
+
+        /**
+         * @return the mean time spent parsing, in milliseconds
+         */
+        public double getParse() {
+            return parse;
+        }
+
+        /**
+         * @return the bytes received
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return the bytes sent
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * @return the number of cache hits
+         */
+        public long getCacheHits() {
+            return cacheHits;
+        }
+
+        /**
+         * @return the number of cache misses
+         */
+        public long getCacheMisses() {
+            return cacheMisses;
+        }
+
+        /**
+         * @return the description of the last error, or null if there was none
+         */
+        public String getLastError() {
+            return lastError;
+        }
+    }
+
+    /**
+     * The view of the diagnostics published to JMX.
+     */
+    public interface DiagnosticsMXBean {
+
+        /**
+         * @return the numbers of every operation counted so far, by name
+         */
+        List<OperationStats> getOperations();
+
+        /**
+         * Forgets every number counted so far.
+         */
+        void reset();
+    }
+
+    /**
+     * The object registered in JMX, reading the shared numbers.
+     */
+    private static class Bean implements DiagnosticsMXBean {
+
+        @Override
+        public List<OperationStats> getOperations() {
+            return snapshot();
+        }
+
+        @Override
+        public void reset() {
+            Diagnostics.reset();
+        }
+    }
+
+    /**
+     * The Flight Recorder event of one HTTP request, lasting until its answer has been read.
+     */
+    @Name("fileforum.Request")
+    @Label("Forum Request")
+    @Category("Fileforum")
+    @Description("An HTTP request sent to the forum server")
+    static class RequestEvent extends Event {
+        @Label("Operation")
+        String operation; // the operation the request was sent for, or null
+
+        @Label("Method")
+        String method; // the method of the request
+
+        @Label("URL")
+        String url; // the URL of the request
+
+        @Label("Status")
+        int status; // the response code, or -1 if there was no answer
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn; // the bytes of the answer, as they came over the wire
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut; // the bytes of the body of the request
+
+        @Label("Error")
+        String error; // the error the request failed with, or null
+    }
+
+    /**
+     * The Flight Recorder event of one operation, lasting from its start to its end.
+     */
+    @Name("fileforum.Operation")
+    @Label("Forum Operation")
+    @Category("Fileforum")
+    @Description("A request of the program, such as a login or a refresh, or the posts being shown")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation; // the name of the operation
+
+        @Label("Network Time")
+        @Timespan
+        long network; // the time spent waiting for the server, in nanoseconds
+
+        @Label("Parse Time")
+        @Timespan
+        long parse; // the time spent parsing, in nanoseconds
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn; // the bytes received
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut; // the bytes sent
+
+        @Label("Cache Hits")
+        int cacheHits; // the number of cache hits
+
+        @Label("Cache Misses")
+        int cacheMisses; // the number of cache misses
+
+        @Label("Error")
+        String error; // the error the operation failed with, or null
+    }
+}
@@ -0,0 +1,150 @@
+package fileforum;
+
+import javax.swing.*; // import used for GUI
+import javax.swing.table.AbstractTableModel; // import used for the table of operations
+import java.awt.*; // import used for GUI
+
+import java.util.Collections; // import used for the empty list of operations
+import java.util.List; // import used for holding the operations
+
+/**
+ * The DiagnosticsPanel class shows the live numbers of the Diagnostics class as a table with one row per operation.
+ * It is hidden from users: the Screen class opens it in a window of its own on Ctrl+Shift+D.
+ * The columns tell where the time of each operation went: its latency percentiles, and of its mean, how much was spent waiting for the server and how much parsing.
+ * Showing posts has rows of its own, "render" and "paint", so a slow refresh can be told apart from a slow list.
+ * The table is brought up to date every second while the panel is showing; Reset forgets every number counted so far.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class DiagnosticsPanel extends JPanel {
+    private static final int REFRESH = 1000; // the number of milliseconds between updates of the table
+    private static final String[] COLUMNS = {"Operation", "Calls", "Errors", "p50 ms", "p90 ms", "p99 ms", "Max ms", "Mean ms", "Network ms", "Parse ms",
+            "KB in", "KB out", "Cache hit/miss", "Last error"}; // the headers of the table
+
+    private final StatsModel model = new StatsModel(); // the numbers shown
+    private final Timer timer = new Timer(REFRESH, e -> update()); // brings the table up to date
+
+    /**
+     * Constructor method which lays out the table and the Reset button.
+     */
+    public DiagnosticsPanel() {
+        setLayout(new BorderLayout());
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(COLUMNS.length - 1).setPreferredWidth(300);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(e -> {
+            Diagnostics.reset();
+            update();
+        });
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(reset);
+        add(buttons, BorderLayout.SOUTH);
+        setPreferredSize(new Dimension(1100, 320));
+    }
+
+    /**
+     * Opens the panel in a window of its own, which stops updating once it is closed.
+     * @param owner the component the window belongs to
+     */
+    public static void open(Component owner) {
+        DiagnosticsPanel panel = new DiagnosticsPanel();
+        JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(owner), "Diagnostics");
+        dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dialog.add(panel);
+        dialog.pack();
+        dialog.setLocationRelativeTo(owner);
+        dialog.setVisible(true);
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        update();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    /**
+     * Shows the numbers as they are now.
+     */
+    private void update() {
+        model.setRows(Diagnostics.snapshot());
+    }
+
+    /**
+     * The numbers of every operation, one row each.
+     */
+    private static class StatsModel extends AbstractTableModel {
+        private List<Diagnostics.OperationStats> rows = Collections.emptyList(); // the numbers shown, by name of operation
+
+        /**
+         * Replaces the numbers shown.
+         * @param rows the numbers of every operation
+         */
+        void setRows(List<Diagnostics.OperationStats> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            if (column == 0 || column >= 12) {
+                return String.class;
+            }
+            return column <= 2 ? Long.class : Double.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Diagnostics.OperationStats s = rows.get(row);
+            switch (column) {
+                case 0: return s.getOperation();
+                case 1: return s.getCount();
+                case 2: return s.getErrors();
+                case 3: return round(s.getP50());
+                case 4: return round(s.getP90());
+                case 5: return round(s.getP99());
+                case 6: return round(s.getMax());
+                case 7: return round(s.getMean());
+                case 8: return round(s.getNetwork());
+                case 9: return round(s.getParse());
+                case 10: return round(s.getBytesIn() / 1024.0);
+                case 11: return round(s.getBytesOut() / 1024.0);
+                case 12: return s.getCacheHits() + s.getCacheMisses() == 0 ? "" : s.getCacheHits() + " / " + s.getCacheMisses();
+                default: return s.getLastError() == null ? "" : s.getLastError();
+            }
+        }
+
+        /**
+         * @param value a number of milliseconds or kilobytes
+         * @return the number to two decimal places
+         */
+        private static double round(double value) {
+            return Math.round(value * 100) / 100.0;
+        }
+    }
+}
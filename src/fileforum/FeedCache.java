@@ -0,0 +1,344 @@
+package fileforum;
+
+import java.io.*; // import used for reading the posts database as it arrives
+
+import java.util.ArrayList; // import used for collecting posts
+import java.util.Arrays; // import used for comparing and copying byte ranges
+import java.util.Base64; // import used for saving the first bytes of the last copy
+import java.util.Collections; // import used for the empty list of posts
+import java.util.HashMap; // import used for building request headers
+import java.util.List; // import used for returning posts
+import java.util.Map; // import used for building request headers
+import java.util.Properties; // import used for saving and restoring the state of the cache
+import java.util.function.Consumer; // import used for handing over the first page of posts early
+
+/**
+ * The FeedCache class keeps track of what the client already has of the posts database so the client does not download the whole of it on every fetch.
+ * The posts database is written newest first (api/post.php prepends every new post), so the only bytes that can change between two fetches are at the start of the file.
+ * Only the size and the first few bytes of the last copy are kept; the posts themselves are handed to the caller, which keeps them as it likes.
+ *
+ * ### UNCHANGED FEED ###
+ * Every GET carries the ETag and Last-Modified of the last copy as If-None-Match and If-Modified-Since.
+ * If nothing changed, the server answers 304 Not Modified with no body and no posts are added.
+ *
+ * ### CHANGED FEED ###
+ * If the client already has a copy, the GET also asks for the first bytes of the file with a Range header.
+ * The total size in the Content-Range of the answer tells how many bytes were prepended since the last fetch; if the first window did not cover them all, a second Range request fetches the rest.
+ * The bytes right after the new ones are compared against the start of the last copy. If they match, only the posts in the new bytes are added; if not (the file was rewritten), the whole file is downloaded again.
+ * If the server does not support Range requests it answers 200 with the full file, which simply replaces the last copy.
+ * Range requests ask for the file uncompressed so that byte offsets refer to the file itself; full downloads may come compressed.
+ * A fetch answered by 304, or patched by Range requests, counts as a hit of the cache; one that downloads the whole file counts as a miss (see the Diagnostics class).
+ *
+ * ### FULL DOWNLOAD ###
+ * A full download is parsed as it arrives (see the FeedParser class), and the first page of posts is handed over as soon as it has been parsed, so it can be shown before the download finishes.
+ *
+ * ### PUSHED POSTS ###
+ * Posts pushed by the server (see the FeedStream class) come as the exact lines the server put in front of the file, so they can be added to the last copy without a request.
+ * The validators no longer name the copy after that, so they are dropped; the next fetch asks for the first window of the file instead, and checks the pushed bytes against it like any other.
+ *
+ * ### RESTARTS ###
+ * The size, first bytes and validators can be saved and restored along with the posts (see the FeedStore class), so the first fetch after a restart only downloads what was added while the program was closed.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class FeedCache {
+    private static final int WINDOW = 64 * 1024; // the number of bytes asked for in the first Range request
+    private static final int OVERLAP = 4 * 1024; // the number of old bytes compared to check that the file was only prepended to
+    private static final int FIRST_PAGE = 200; // the number of posts handed over before a full download finishes
+
+    private final Transport transport; // the shared connection to the server
+    private final String FEED_URL; // the URL of the posts database
+
+    private long length; // the size of the last copy of the posts database, in bytes
+    private byte[] head = new byte[0]; // the first bytes of the last copy of the posts database
+    private String eTag; // the ETag of the last copy, or null if the server did not send one
+    private String lastModified; // the Last-Modified date of the last copy, or null if the server did not send one
+
+    /**
+     * Constructor method which sets up an empty cache for the given posts database.
+     * @param feedUrl the URL of the posts database
+     * @param transport the shared connection to the server
+     */
+    public FeedCache(String feedUrl, Transport transport) {
+        FEED_URL = feedUrl;
+        this.transport = transport;
+    }
+
+    /**
+     * Brings the last copy up to date with the server.
+     * @param firstPage called with the first posts of a full download as soon as they are parsed, or null
+     * @return the posts added since the last fetch, or null if the server did not answer with the feed
+     * @throws Exception an error in retrieval of data, typically due to server internal issues
+     */
+    public synchronized Delta fetch(Consumer<List<PostRecord>> firstPage) throws Exception {
+        Map<String, String> headers = conditions();
+        if (length > 0) {
+            headers.put("Range", "bytes=0-" + (WINDOW - 1));
+            headers.put("Accept-Encoding", "identity");
+        }
+        try (Transport.Stream response = transport.stream(FEED_URL, headers)) {
+            int responseCode = response.status();
+            if (responseCode == 304) {
+                Diagnostics.cache(true);
+                return new Delta(false, Collections.emptyList());
+            }
+            if (responseCode == 200) {
+                Diagnostics.cache(false);
+                return replace(response, firstPage);
+            }
+            if (responseCode == 206) {
+                Delta delta = prepend(response);
+                if (delta != null) {
+                    Diagnostics.cache(true);
+                    return delta;
+                }
+            }
+            Diagnostics.cache(false);
+            if (responseCode != 206 && responseCode != 416) {
+                return null;
+            }
+        }
+        // the last copy could not be patched, so start over with the whole file
+        length = 0;
+        try (Transport.Stream response = transport.stream(FEED_URL, conditions())) {
+            if (response.status() == 200) {
+                return replace(response, firstPage);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds bytes pushed by the server in front of the last copy, as if a fetch had found them there.
+     * @param added the lines of the new posts, newest first, as the server wrote them
+     */
+    public synchronized void push(byte[] added) {
+        byte[] patched = Arrays.copyOf(added, (int) Math.min(OVERLAP, (long) added.length + head.length));
+        if (added.length < patched.length) {
+            System.arraycopy(head, 0, patched, added.length, patched.length - added.length);
+        }
+        head = patched;
+        length += added.length;
+        remember(null, null);
+    }
+
+    /**
+     * Writes what the cache knows of the last copy, for restore to read back after a restart.
+     * @param state the properties to write to
+     */
+    public synchronized void save(Properties state) {
+        state.setProperty("length", Long.toString(length));
+        state.setProperty("head", Base64.getEncoder().encodeToString(head));
+        if (eTag != null) {
+            state.setProperty("eTag", eTag);
+        }
+        if (lastModified != null) {
+            state.setProperty("lastModified", lastModified);
+        }
+    }
+
+    /**
+     * Picks up from a copy saved by save, as if the fetch that got it had just finished.
+     * Properties without a saved copy leave the cache empty.
+     * @param state the properties written by save
+     */
+    public synchronized void restore(Properties state) {
+        if (state.getProperty("length") == null || state.getProperty("head") == null) {
+            return;
+        }
+        length = Long.parseLong(state.getProperty("length"));
+        head = Base64.getDecoder().decode(state.getProperty("head"));
+        remember(state.getProperty("eTag"), state.getProperty("lastModified"));
+    }
+
+    /**
+     * Builds the headers of a conditional GET request for the posts database.
+     * @return the headers, which the caller may add to
+     */
+    private Map<String, String> conditions() {
+        Map<String, String> headers = new HashMap<>();
+        if (length > 0 && eTag != null) {
+            headers.put("If-None-Match", eTag);
+        }
+        if (length > 0 && lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        return headers;
+    }
+
+    /**
+     * Reads the bytes prepended to the posts database since the last fetch.
+     * @param response the answer 206 Partial Content to the first Range request
+     * @return the posts in the prepended bytes, or null if the whole file has to be downloaded again
+     * @throws Exception an error in retrieval of data
+     */
+    private Delta prepend(Transport.Stream response) throws Exception {
+        long total = totalLength(response.header("Content-Range"));
+        byte[] start = response.body().readAllBytes();
+        long added = total - length;
+        if (total < 0 || added < 0) {
+            return null;
+        }
+        // make sure the new bytes and some of the old ones are in hand
+        long wanted = Math.min(total, added + Math.min(OVERLAP, length));
+        if (start.length < wanted) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Range", "bytes=" + start.length + "-" + (wanted - 1));
+            headers.put("Accept-Encoding", "identity");
+            String validator = response.header("ETag");
+            if (validator != null) {
+                headers.put("If-Range", validator);
+            }
+            Transport.Response rest = transport.get(FEED_URL, headers);
+            if (rest.status() != 206) {
+                return null;
+            }
+            byte[] tail = rest.body();
+            byte[] joined = Arrays.copyOf(start, start.length + tail.length);
+            System.arraycopy(tail, 0, joined, start.length, tail.length);
+            start = joined;
+            if (start.length < wanted) {
+                return null;
+            }
+        }
+        // the old bytes must follow the new ones unchanged, otherwise the file was rewritten
+        int split = (int) added;
+        int checked = (int) (wanted - added);
+        if (!Arrays.equals(start, split, split + checked, head, 0, checked)) {
+            return null;
+        }
+        List<PostRecord> records = FeedParser.parse(start, 0, split);
+        byte[] patched = Arrays.copyOf(start, Math.min(OVERLAP, split + head.length));
+        if (split < patched.length) {
+            System.arraycopy(head, 0, patched, split, patched.length - split);
+        }
+        head = patched;
+        length = total;
+        remember(response.header("ETag"), response.header("Last-Modified"));
+        return new Delta(false, records);
+    }
+
+    /**
+     * Reads a full download of the posts database as it arrives.
+     * @param response the answer 200 OK holding the whole posts database
+     * @param firstPage called with the first posts as soon as they are parsed, or null
+     * @return every post, to replace the last copy
+     * @throws IOException an error in retrieval of data
+     */
+    private Delta replace(Transport.Stream response, Consumer<List<PostRecord>> firstPage) throws IOException {
+        Recorder in = new Recorder(response.body());
+        FeedParser parser = new FeedParser(in);
+        ArrayList<PostRecord> records = new ArrayList<>();
+        PostRecord record;
+        while ((record = parser.next()) != null) {
+            records.add(record);
+            if (records.size() == FIRST_PAGE && firstPage != null) {
+                firstPage.accept(new ArrayList<>(records));
+            }
+        }
+        length = in.count;
+        head = Arrays.copyOf(in.head, (int) Math.min(OVERLAP, in.count));
+        remember(response.header("ETag"), response.header("Last-Modified"));
+        return new Delta(true, records);
+    }
+
+    /**
+     * Keeps the validators of an answer for the next conditional request.
+     * @param eTag the ETag of the answer, or null
+     * @param lastModified the Last-Modified date of the answer, or null
+     */
+    private void remember(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Reads the total length of the posts database from a Content-Range header such as "bytes 0-65535/1048576".
+     * @param contentRange the value of the Content-Range header
+     * @return the total length, or -1 if it is missing or unknown
+     */
+    private static long totalLength(String contentRange) {
+        if (contentRange == null || contentRange.indexOf('/') < 0) {
+            return -1;
+        }
+        String total = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+        try {
+            return Long.parseLong(total);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The posts added to the posts database by a fetch.
+     */
+    public static class Delta {
+        private final boolean replaced; // true if the posts replace every post the caller has
+        private final List<PostRecord> added; // the posts added, newest first
+
+        /**
+         * Constructor method which holds the result of a fetch.
+         * @param replaced true if the posts replace every post the caller has
+         * @param added the posts added, newest first
+         */
+        public Delta(boolean replaced, List<PostRecord> added) {
+            this.replaced = replaced;
+            this.added = added;
+        }
+
+        /**
+         * @return true if the posts replace every post the caller has, false if they come in front of them
+         */
+        public boolean replaced() {
+            return replaced;
+        }
+
+        /**
+         * @return the posts added, newest first
+         */
+        public List<PostRecord> added() {
+            return added;
+        }
+    }
+
+    /**
+     * Passes a download through while counting its bytes and keeping the first few of them.
+     */
+    private static class Recorder extends FilterInputStream {
+        private final byte[] head = new byte[OVERLAP]; // the first bytes read
+        private long count; // the number of bytes read
+
+        /**
+         * @param in the download to pass through
+         */
+        Recorder(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                if (count < OVERLAP) {
+                    head[(int) count] = (byte) b;
+                }
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                if (count < OVERLAP) {
+                    System.arraycopy(b, off, head, (int) count, (int) Math.min(read, OVERLAP - count));
+                }
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package fileforum;
+
+import java.io.*; // import used for saving the index
+
+import java.nio.ByteBuffer; // import used for reading the saved index
+import java.nio.channels.FileChannel; // import used for reading the saved index
+import java.nio.charset.StandardCharsets; // import used for encoding words
+import java.nio.file.*; // import used for locating the saved index
+
+import java.util.ArrayList; // import used for collecting a page of posts
+import java.util.Arrays; // import used for growing postings
+import java.util.BitSet; // import used for collecting matching posts
+import java.util.List; // import used for holding query terms
+import java.util.Map; // import used for walking the vocabulary
+import java.util.PriorityQueue; // import used for walking several postings newest first
+import java.util.TreeMap; // import used for the sorted vocabulary, which makes prefix queries cheap
+
+/**
+ * The FeedIndex class is an in-memory inverted index of the posts database, so searching never has to go back to the server or scan every post.
+ * Each post gets an id in the order it was written (the oldest post is 0), and every word of a post is recorded with the id of the post and its position in it.
+ * The index is built once from the first fetch of the posts database and then only has the new posts added when the feed grows.
+ * The ForumServer class keeps one of every post as well, to answer api/search.php.
+ * The posts themselves are kept in a PostStore, packed by column, and decoded only when they are handed out; the lists of posts a search returns decode each post as it is read.
+ *
+ * ### QUERIES ###
+ * The query is split into words the same way posts are: runs of letters and digits, lowercased.
+ * A post matches when it holds the words of the query next to each other, in order, with the last word allowed to be the start of a longer one.
+ * So "hel" matches "Hello there" and "hello th" matches it too, but "there hello" does not.
+ * The username of the poster counts as part of the post, so searching for a username finds their posts.
+ * A query without any letters or digits falls back to a plain text search; an empty query matches every post.
+ * matches checks a single post the same way without an index, for posts the index does not hold, such as those archived on the server.
+ *
+ * ### PAGES ###
+ * A page of matches can be asked for below a given post id, newest first (see the PostPage class).
+ * Postings are walked backwards from that id and the walk stops as soon as the page is full, so a page costs about the same however many posts match in all.
+ * A plain text search looks at no more than a fixed number of posts per page, and may hand back a short page with a cursor to carry on from.
+ *
+ * ### SAVED INDEX ###
+ * The index can be saved next to the cached posts (see the FeedStore class) and read back in on the next start instead of splitting every post into words again.
+ * It is read into memory rather than mapped, so the file is not held open by a map when the next save replaces it.
+ * A saved index covers the posts that existed when it was saved; posts cached since then are indexed as they are loaded.
+ * Each saved index names the generation of the cached posts it was built from, and is ignored if they have been started over since.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class FeedIndex {
+    private static final int MAGIC = 0x46494458; // the first bytes of a saved index, "FIDX"
+    private static final int SCAN = 10000; // the most posts a plain text search looks at for one page
+
+    private final PostStore posts = new PostStore(); // the posts, oldest first, so a post's index is its position here
+    private final TreeMap<String, Postings> words = new TreeMap<>(); // every word in the posts, with where it appears
+    private int saved; // the number of posts covered by the saved index, or 0 if there is none
+
+    /**
+     * Brings the index up to date with the posts added by a fetch.
+     * @param delta the posts added by a fetch, newest first
+     */
+    public synchronized void update(FeedCache.Delta delta) {
+        if (delta.replaced()) {
+            posts.clear();
+            words.clear();
+            saved = 0;
+        }
+        List<PostRecord> added = delta.added();
+        // walk the posts backwards so ids follow the order posts were written
+        for (int i = added.size() - 1; i >= 0; i--) {
+            add(added.get(i));
+        }
+    }
+
+    /**
+     * Replaces the index with cached posts, reading their words from a saved index where it covers them.
+     * @param cached the cached posts, oldest first
+     * @param file the saved index, which need not exist
+     * @param generation the generation of the cached posts
+     */
+    public synchronized void load(List<PostRecord> cached, Path file, long generation) {
+        posts.clear();
+        words.clear();
+        saved = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+            while (in.hasRemaining()) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Saved index cut short");
+                }
+            }
+            in.flip();
+            if (in.getInt() == MAGIC && in.getLong() == generation) {
+                int count = in.getInt();
+                int vocabulary = in.getInt();
+                if (count <= cached.size()) {
+                    for (int w = 0; w < vocabulary; w++) {
+                        byte[] word = new byte[in.getInt()];
+                        in.get(word);
+                        Postings postings = new Postings();
+                        postings.size = in.getInt();
+                        postings.data = new int[Math.max(4, postings.size)];
+                        in.asIntBuffer().get(postings.data, 0, postings.size);
+                        in.position(in.position() + postings.size * 4);
+                        words.put(new String(word, StandardCharsets.UTF_8), postings);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        posts.add(cached.get(i));
+                    }
+                    saved = count;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // no usable saved index, so every post is indexed below
+            words.clear();
+            posts.clear();
+            saved = 0;
+        }
+        for (int i = posts.size(); i < cached.size(); i++) {
+            add(cached.get(i));
+        }
+    }
+
+    /**
+     * Saves the index, replacing the file in one move so a crash never leaves half of it behind.
+     * @param file the file to save the index in
+     * @param generation the generation of the cached posts the index was built from
+     * @throws IOException an error in writing the file
+     */
+    public synchronized void save(Path file, long generation) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+            out.writeInt(posts.size());
+            out.writeInt(words.size());
+            for (Map.Entry<String, Postings> entry : words.entrySet()) {
+                byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(word.length);
+                out.write(word);
+                Postings postings = entry.getValue();
+                out.writeInt(postings.size);
+                for (int i = 0; i < postings.size; i++) {
+                    out.writeInt(postings.data[i]);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        saved = posts.size();
+    }
+
+    /**
+     * @return the number of posts indexed since the index was last saved or loaded
+     */
+    public synchronized int unsaved() {
+        return posts.size() - saved;
+    }
+
+    /**
+     * Indexes posts written after every post already indexed.
+     * @param added the new posts, oldest first
+     */
+    public synchronized void append(List<PostRecord> added) {
+        for (PostRecord post : added) {
+            add(post);
+        }
+    }
+
+    /**
+     * @return the id the server gave the newest post indexed, or -1 if there is none
+     */
+    public synchronized long newestId() {
+        return posts.size() == 0 ? -1 : posts.id(posts.size() - 1);
+    }
+
+    /**
+     * @return the id the server gave the oldest post indexed, or -1 if there is none
+     */
+    public synchronized long oldestId() {
+        return posts.size() == 0 ? -1 : posts.id(0);
+    }
+
+    /**
+     * @return the number of posts indexed
+     */
+    public synchronized int size() {
+        return posts.size();
+    }
+
+    /**
+     * @return true if no post has been indexed yet
+     */
+    public synchronized boolean isEmpty() {
+        return posts.size() == 0;
+    }
+
+    /**
+     * Finds the posts matching a query.
+     * @param query the text from the search box
+     * @return the matching posts, newest first, decoded as they are read
+     */
+    public synchronized List<PostRecord> search(String query) {
+        if (query.isEmpty()) {
+            return posts.newestFirst(posts.size());
+        }
+        BitSet matching = new BitSet(posts.size());
+        List<String> terms = tokens(query);
+        if (terms.isEmpty()) {
+            // nothing to look up, so fall back to searching the text itself
+            byte[] encoded = query.getBytes(StandardCharsets.UTF_8);
+            for (int id = 0; id < posts.size(); id++) {
+                if (posts.contains(id, query, encoded)) {
+                    matching.set(id);
+                }
+            }
+        } else if (terms.size() == 1) {
+            for (Postings p : prefixed(terms.get(0))) {
+                for (int i = 0; i < p.size; i += 2) {
+                    matching.set(p.data[i]);
+                }
+            }
+        } else {
+            phrase(terms, matching);
+        }
+        int[] filtered = new int[matching.cardinality()];
+        int count = 0;
+        for (int id = matching.previousSetBit(posts.size() - 1); id >= 0; id = matching.previousSetBit(id - 1)) {
+            filtered[count++] = id;
+        }
+        return posts.view(filtered, count);
+    }
+
+    /**
+     * Finds a page of the posts matching a query, newest first.
+     * @param query the text from the search box
+     * @param before the id below which posts are wanted, or -1 for the newest posts
+     * @param limit the most posts to return
+     * @return the matching posts, and the cursor of the next page
+     */
+    public synchronized PostPage search(String query, long before, int limit) {
+        int end = before < 0 ? posts.size() : position(before); // only posts with a lower index are wanted
+        ArrayList<PostRecord> found = new ArrayList<>();
+        List<String> terms = tokens(query);
+        if (query.isEmpty()) {
+            for (int id = end - 1; id >= 0 && found.size() < limit; id--) {
+                found.add(posts.get(id));
+            }
+        } else if (terms.isEmpty()) {
+            byte[] encoded = query.getBytes(StandardCharsets.UTF_8);
+            int id = end - 1;
+            for (int scanned = 0; id >= 0 && found.size() < limit && scanned < SCAN; id--, scanned++) {
+                if (posts.contains(id, query, encoded)) {
+                    found.add(posts.get(id));
+                }
+            }
+            // carry on below the last post looked at, whether or not it matched
+            return new PostPage(found, id >= 0 ? posts.id(id + 1) : -1);
+        } else {
+            int whole = terms.size() - 1; // every word but the last has to match exactly
+            Postings[] exact = new Postings[whole];
+            int rarest = 0;
+            for (int w = 0; w < whole; w++) {
+                exact[w] = words.get(terms.get(w));
+                if (exact[w] == null) {
+                    return new PostPage(found, -1);
+                }
+                if (exact[w].size < exact[rarest].size) {
+                    rarest = w;
+                }
+            }
+            List<Postings> last = prefixed(terms.get(whole));
+            int lastSize = 0;
+            for (Postings p : last) {
+                lastSize += p.size;
+            }
+            // walk whichever part of the phrase appears least
+            boolean walkLast = whole == 0 || lastSize < exact[rarest].size;
+            int offset = walkLast ? whole : rarest;
+            PriorityQueue<Cursor> queue = new PriorityQueue<>();
+            for (Postings p : walkLast ? last : List.of(exact[rarest])) {
+                Cursor cursor = new Cursor(p, end);
+                if (cursor.at >= 0) {
+                    queue.add(cursor);
+                }
+            }
+            int previous = -1;
+            while (!queue.isEmpty() && found.size() < limit) {
+                Cursor cursor = queue.poll();
+                int id = cursor.id();
+                if (id != previous && matches(id, cursor.position() - offset, offset, exact, last)) {
+                    found.add(posts.get(id));
+                    previous = id;
+                }
+                if (cursor.step()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+        return new PostPage(found, found.size() == limit ? found.get(limit - 1).id() : -1);
+    }
+
+    /**
+     * Checks a single post for a query, the way a search of the index would.
+     * @param post the post
+     * @param query the text from the search box
+     * @return true if the post matches the query
+     */
+    public static boolean matches(PostRecord post, String query) {
+        if (query.isEmpty()) {
+            return true;
+        }
+        List<String> terms = tokens(query);
+        if (terms.isEmpty()) {
+            return post.body().contains(query) || post.author().contains(query);
+        }
+        // the words of the username follow those of the text, with a gap so a phrase cannot run from one into the other
+        ArrayList<String> words = new ArrayList<>(tokens(post.body()));
+        words.add("");
+        words.addAll(tokens(post.author()));
+        int whole = terms.size() - 1;
+        for (int start = 0; start + whole < words.size(); start++) {
+            int w = 0;
+            while (w < whole && words.get(start + w).equals(terms.get(w))) {
+                w++;
+            }
+            if (w == whole && words.get(start + whole).startsWith(terms.get(whole))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param id a post id given by the server
+     * @return the index of the first post with that id or a higher one
+     */
+    private int position(long id) {
+        int low = 0;
+        int high = posts.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (posts.id(mid) < id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the posts holding the given words next to each other, the last one as a prefix.
+     * The rarest word of the query is walked, and every place it appears is checked against the recorded positions of the other words.
+     * @param terms the words of the query, at least two
+     * @param matching the set to add the ids of matching posts to
+     */
+    private void phrase(List<String> terms, BitSet matching) {
+        int whole = terms.size() - 1; // every word but the last has to match exactly
+        Postings[] exact = new Postings[whole];
+        int rarest = 0;
+        for (int w = 0; w < whole; w++) {
+            exact[w] = words.get(terms.get(w));
+            if (exact[w] == null) {
+                return;
+            }
+            if (exact[w].size < exact[rarest].size) {
+                rarest = w;
+            }
+        }
+        List<Postings> last = prefixed(terms.get(whole));
+        int lastSize = 0;
+        for (Postings p : last) {
+            lastSize += p.size;
+        }
+        if (lastSize < exact[rarest].size) {
+            for (Postings p : last) {
+                walk(p, whole, exact, last, matching);
+            }
+        } else {
+            walk(exact[rarest], rarest, exact, last, matching);
+        }
+    }
+
+    /**
+     * Checks every place one word of a phrase appears for the rest of the phrase around it.
+     * @param anchor the postings of the word being walked
+     * @param offset the position of that word in the phrase
+     * @param exact the postings of the words that have to match exactly, in phrase order
+     * @param last the postings of every word starting with the last word of the phrase
+     * @param matching the set to add the ids of matching posts to
+     */
+    private static void walk(Postings anchor, int offset, Postings[] exact, List<Postings> last, BitSet matching) {
+        for (int i = 0; i < anchor.size; i += 2) {
+            int id = anchor.data[i];
+            if (!matching.get(id) && matches(id, anchor.data[i + 1] - offset, offset, exact, last)) {
+                matching.set(id);
+            }
+        }
+    }
+
+    /**
+     * Checks one post for a phrase starting at a given position.
+     * @param id the id of the post
+     * @param start the position the phrase would start at
+     * @param offset the position in the phrase of the word already known to be there
+     * @param exact the postings of the words that have to match exactly, in phrase order
+     * @param last the postings of every word starting with the last word of the phrase
+     * @return true if the whole phrase is there
+     */
+    private static boolean matches(int id, int start, int offset, Postings[] exact, List<Postings> last) {
+        if (start < 0) {
+            return false;
+        }
+        for (int w = 0; w < exact.length; w++) {
+            if (w != offset && !exact[w].has(id, start + w)) {
+                return false;
+            }
+        }
+        if (offset == exact.length) {
+            return true;
+        }
+        for (Postings p : last) {
+            if (p.has(id, start + exact.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param prefix the start of a word
+     * @return the postings of every indexed word starting with the prefix
+     */
+    private List<Postings> prefixed(String prefix) {
+        return new ArrayList<>(words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values());
+    }
+
+    /**
+     * Indexes a single post, giving it the next id.
+     * The words of the username follow those of the text, one position apart so a phrase cannot run from one into the other.
+     * @param post the post to index
+     */
+    private void add(PostRecord post) {
+        int id = posts.size();
+        posts.add(post);
+        List<String> tokens = tokens(post.body());
+        int position = 0;
+        for (; position < tokens.size(); position++) {
+            words.computeIfAbsent(tokens.get(position), t -> new Postings()).add(id, position);
+        }
+        for (String token : tokens(post.author())) {
+            words.computeIfAbsent(token, t -> new Postings()).add(id, ++position);
+        }
+    }
+
+    /**
+     * Splits text into lowercase words made of letters and digits.
+     * @param text the text to split
+     * @return the words, in order
+     */
+    private static List<String> tokens(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * A place in one word's postings, walked from the newest post to the oldest.
+     * Cursors order newest first, so a queue of them walks several postings at once in post order.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        private final Postings postings; // the postings walked
+        private int at; // the index of the current pair, or -1 once the walk is over
+
+        /**
+         * @param postings the postings to walk
+         * @param end the index of the first post not wanted; the walk starts at the newest post below it
+         */
+        Cursor(Postings postings, int end) {
+            this.postings = postings;
+            int low = 0;
+            int high = postings.size / 2;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (postings.data[mid * 2] < end) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            at = low * 2 - 2;
+        }
+
+        /**
+         * @return the id of the post at the current pair
+         */
+        int id() {
+            return postings.data[at];
+        }
+
+        /**
+         * @return the position of the word at the current pair
+         */
+        int position() {
+            return postings.data[at + 1];
+        }
+
+        /**
+         * Moves to the pair before the current one.
+         * @return true if there was one
+         */
+        boolean step() {
+            at -= 2;
+            return at >= 0;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return Integer.compare(other.id(), id());
+        }
+    }
+
+    /**
+     * The places a single word appears, as (post id, position) pairs packed into one int array.
+     * Pairs are only ever appended in increasing post id order, so the array stays sorted by post id.
+     */
+    private static class Postings {
+        private int[] data = new int[4]; // post id and position of each appearance, one after the other
+        private int size; // the number of ints of data in use
+
+        /**
+         * Records an appearance of the word.
+         * @param id the id of the post
+         * @param position the position of the word in the post
+         */
+        void add(int id, int position) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = id;
+            data[size++] = position;
+        }
+
+        /**
+         * @param id the id of a post
+         * @return the index of the first pair for the post, or -1 if the word does not appear in it
+         */
+        int find(int id) {
+            int low = 0;
+            int high = size / 2 - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int at = data[mid * 2];
+                if (at < id) {
+                    low = mid + 1;
+                } else {
+                    if (at == id) {
+                        found = mid * 2;
+                    }
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * @param id the id of a post
+         * @param position a position in the post
+         * @return true if the word appears in the post at that position
+         */
+        boolean has(int id, int position) {
+            for (int i = find(id); i >= 0 && i < size && data[i] == id; i += 2) {
+                if (data[i + 1] == position) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package fileforum;
+
+import java.io.*; // import used for reading the posts database as it arrives
+
+import java.nio.charset.StandardCharsets; // import used for decoding lines
+import java.util.ArrayList; // import used for returning parsed posts
+import java.util.Arrays; // import used for growing the buffer
+import java.util.List; // import used for returning parsed posts
+
+/**
+ * The FeedParser class reads the posts database one post at a time while it is still being downloaded.
+ * Every post is one line of JSON (see the PostRecord class), so a post is complete as soon as its new line has arrived; nothing has to wait for the rest of the file.
+ * Lines are found on the raw bytes and only decoded one at a time, so memory use does not grow with the size of the file.
+ * The time spent parsing, between waits for more of the stream, is counted for the operation running (see the Diagnostics class).
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class FeedParser {
+    private final InputStream in; // the posts database as it arrives
+
+    private byte[] buffer = new byte[64 * 1024]; // bytes read but not yet parsed
+    private int start; // the index of the first byte in the buffer not yet parsed
+    private int end; // the index after the last byte read into the buffer
+    private int scanned; // the index after the last byte already searched for a new line
+    private boolean finished; // true once the stream has ended
+    private long resumed = System.nanoTime(); // the time parsing last resumed after waiting for the stream, from System.nanoTime
+
+    /**
+     * Constructor method which prepares to read posts from a stream.
+     * @param in the posts database as it arrives
+     */
+    public FeedParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next post, waiting for its line to arrive if needed.
+     * Blank lines are skipped.
+     * @return the next post, or null at the end of the stream
+     * @throws IOException an error in reading the stream, or a line that is not a post
+     */
+    public PostRecord next() throws IOException {
+        while (true) {
+            for (int i = Math.max(start, scanned); i < end; i++) {
+                if (buffer[i] == '\n') {
+                    PostRecord record = parse(start, i);
+                    start = i + 1;
+                    scanned = start;
+                    if (record != null) {
+                        return record;
+                    }
+                }
+            }
+            scanned = end;
+            if (finished) {
+                // the last line may not end with a new line
+                PostRecord record = parse(start, end);
+                start = end;
+                lap();
+                return record;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Reads every post in part of a byte array.
+     * @param bytes the raw bytes of the posts database
+     * @param from the index of the first byte to read
+     * @param to the index after the last byte to read
+     * @return the posts, in the order they appear
+     * @throws IOException a line that is not a post
+     */
+    public static List<PostRecord> parse(byte[] bytes, int from, int to) throws IOException {
+        FeedParser parser = new FeedParser(new ByteArrayInputStream(bytes, from, to - from));
+        ArrayList<PostRecord> records = new ArrayList<>();
+        PostRecord record;
+        while ((record = parser.next()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Reads more of the stream into the buffer, first moving what is left of it to the front, or growing it if a single line fills it.
+     * @throws IOException an error in reading the stream
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        lap();
+        int read = in.read(buffer, end, buffer.length - end);
+        resumed = System.nanoTime();
+        if (read < 0) {
+            finished = true;
+        } else {
+            end += read;
+        }
+    }
+
+    /**
+     * Counts the time spent parsing since parsing last resumed.
+     */
+    private void lap() {
+        long now = System.nanoTime();
+        Diagnostics.parse(now - resumed);
+        resumed = now;
+    }
+
+    /**
+     * Parses a single line of the buffer.
+     * @param from the index of the first byte of the line
+     * @param to the index after the last byte of the line, not counting the new line
+     * @return the post, or null if the line is blank
+     * @throws IOException if the line is not a post
+     */
+    private PostRecord parse(int from, int to) throws IOException {
+        String line = new String(buffer, from, to - from, StandardCharsets.UTF_8).trim();
+        if (line.isEmpty()) {
+            return null;
+        }
+        try {
+            return PostRecord.fromJson(line);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed post record", e);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package fileforum;
+
+import java.io.*; // import used for reading and writing the cache files
+
+import java.nio.ByteBuffer; // import used for holding the cache as it is read
+import java.nio.channels.Channels; // import used for appending posts through a stream
+import java.nio.channels.FileChannel; // import used for reading and appending to the cache files
+import java.nio.channels.FileLock; // import used for keeping other copies of the program out of the cache
+import java.nio.charset.StandardCharsets; // import used for encoding posts and hashing the URL
+import java.nio.file.*; // import used for locating the cache files
+
+import java.security.MessageDigest; // import used for naming the cache directory after the URL
+import java.util.ArrayList; // import used for collecting posts
+import java.util.Collections; // import used for reversing the newest posts
+import java.util.List; // import used for returning posts
+import java.util.Properties; // import used for the state of the cache
+import java.util.function.Consumer; // import used for handing over the newest posts early
+
+/**
+ * The FeedStore class keeps a copy of the posts database on disk, so the program can show posts the moment it starts instead of waiting for the server.
+ * Each server gets its own directory under ~/.fileforum/cache, named after a hash of its base URL.
+ *
+ * ### FILES ###
+ *      posts.ndjson    - every post fetched, one line of JSON each, OLDEST first
+ *      feed.properties - the size and validators of the server's copy (see the FeedCache class) and how much of posts.ndjson is complete
+ *      index.bin       - the search index of the first posts in posts.ndjson (see the FeedIndex class)
+ * The server writes its posts newest first, but the copy on disk is kept oldest first so that new posts are only ever appended to it.
+ * feed.properties is replaced in one move after posts.ndjson has been written, so a copy cut short by a crash is simply cut back to the last complete size.
+ *
+ * ### LOADING ###
+ * posts.ndjson is read into memory in one go. The newest posts are at the end of the file, so the last page is found by walking backwards from the end and handed over before the rest of the file is parsed.
+ * It is not memory mapped: on Windows a mapped file can be neither replaced nor cut short until the map is collected, which would make every later save fail.
+ * A cache that cannot be read is deleted and the program starts as if it had none.
+ * Only one copy of the program can use a cache directory at a time; any other runs without a cache.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class FeedStore {
+    private final Path dir; // the directory of the cache
+    private final Path posts; // every post fetched, oldest first
+    private final Path meta; // the state of the cache
+    private final Path index; // the saved search index
+    private final FileLock lock; // the lock keeping other copies of the program out of the directory
+
+    private Properties state = new Properties(); // the state of the cache as last written
+    private long generation; // the number of times posts.ndjson was started over, so an index of an older copy is not used
+
+    /**
+     * Constructor method which opens the cache directory of a server.
+     * @param dir the cache directory
+     * @param lock the lock held on the directory
+     */
+    private FeedStore(Path dir, FileLock lock) {
+        this.dir = dir;
+        this.lock = lock;
+        posts = dir.resolve("posts.ndjson");
+        meta = dir.resolve("feed.properties");
+        index = dir.resolve("index.bin");
+    }
+
+    /**
+     * Opens the cache of a server in the home directory of the user.
+     * @param baseUrl the base URL of the server
+     * @return the cache, or null if it cannot be used, such as when another copy of the program holds it
+     */
+    public static FeedStore open(String baseUrl) {
+        try {
+            Path dir = Paths.get(System.getProperty("user.home"), ".fileforum", "cache", name(baseUrl));
+            Files.createDirectories(dir);
+            FileChannel channel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                return null;
+            }
+            FeedStore store = new FeedStore(dir, lock);
+            store.state.setProperty("url", baseUrl);
+            return store;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Names the files of a server after a hash of its base URL, so every server gets its own and the URL needs no escaping.
+     * @param baseUrl the base URL of the server
+     * @return the name, 16 hexadecimal digits
+     * @throws Exception never; every Java runtime has SHA-256
+     */
+    static String name(String baseUrl) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(baseUrl.getBytes(StandardCharsets.UTF_8));
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            name.append(String.format("%02x", hash[i]));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Reads the cached posts, handing over the newest of them before the rest are parsed.
+     * @param page the number of newest posts to hand over first
+     * @param newest called with the newest posts, newest first, unless there are none; may be null
+     * @return the state of the server's copy the posts were fetched from, empty if there is no usable cache
+     * @throws IOException never for a broken cache, which is deleted; only for an error in deleting it
+     */
+    public synchronized Loaded load(int page, Consumer<List<PostRecord>> newest) throws IOException {
+        try {
+            if (!Files.exists(meta)) {
+                return new Loaded(new Properties(), new ArrayList<>());
+            }
+            Properties saved = new Properties();
+            try (Reader reader = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+                saved.load(reader);
+            }
+            if (!state.getProperty("url").equals(saved.getProperty("url"))) {
+                throw new IOException("Cache of another server");
+            }
+            long size = Long.parseLong(saved.getProperty("size"));
+            generation = Long.parseLong(saved.getProperty("generation"));
+            List<PostRecord> records;
+            try (FileChannel channel = FileChannel.open(posts, StandardOpenOption.READ)) {
+                if (channel.size() < size) {
+                    throw new IOException("Cache cut short");
+                }
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Cache too large to read");
+                }
+                ByteBuffer bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining()) {
+                    if (channel.read(bytes) < 0) {
+                        throw new IOException("Cache cut short");
+                    }
+                }
+                // the newest posts are at the end, so find where the last page starts
+                int split = 0;
+                int lines = 0;
+                for (int i = (int) size - 2; i >= 0; i--) {
+                    if (bytes.get(i) == '\n' && ++lines == page) {
+                        split = i + 1;
+                        break;
+                    }
+                }
+                List<PostRecord> last = parse(bytes, split, (int) size);
+                if (newest != null && !last.isEmpty()) {
+                    List<PostRecord> shown = new ArrayList<>(last);
+                    Collections.reverse(shown);
+                    newest.accept(shown);
+                }
+                records = parse(bytes, 0, split);
+                records.addAll(last);
+            }
+            if (records.size() != Integer.parseInt(saved.getProperty("count"))) {
+                throw new IOException("Cache does not match its state");
+            }
+            state = saved;
+            return new Loaded(saved, records);
+        } catch (Exception e) {
+            // a cache is only ever a shortcut, so start over without it
+            clear();
+            return new Loaded(new Properties(), new ArrayList<>());
+        }
+    }
+
+    /**
+     * Writes the posts added by a fetch to the cache.
+     * @param delta the posts added by a fetch
+     * @param server the state of the server's copy after the fetch, from FeedCache.save
+     * @param count the number of posts in the cache after the fetch
+     * @throws IOException an error in writing the cache
+     */
+    public synchronized void save(FeedCache.Delta delta, Properties server, int count) throws IOException {
+        long size = Long.parseLong(state.getProperty("size", "0"));
+        if (delta.replaced()) {
+            generation++;
+            Path temp = dir.resolve("posts.tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                size = write(out, delta.added());
+            }
+            Files.move(temp, posts, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else if (!delta.added().isEmpty()) {
+            try (FileChannel channel = FileChannel.open(posts, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // drop whatever a crash left after the last complete write
+                channel.truncate(size);
+                channel.position(size);
+                size += write(Channels.newOutputStream(channel), delta.added());
+            }
+        }
+        Properties next = new Properties();
+        next.putAll(server);
+        next.setProperty("url", state.getProperty("url"));
+        next.setProperty("size", Long.toString(size));
+        next.setProperty("count", Integer.toString(count));
+        next.setProperty("generation", Long.toString(generation));
+        Path temp = dir.resolve("feed.tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            next.store(writer, "fileforum feed cache");
+        }
+        Files.move(temp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        state = next;
+    }
+
+    /**
+     * @return the file the search index is saved in
+     */
+    public Path indexFile() {
+        return index;
+    }
+
+    /**
+     * @return the number of times the cached posts were started over, which an index saved with them has to match
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Deletes every file of the cache but the lock.
+     * @throws IOException an error in deleting a file
+     */
+    private void clear() throws IOException {
+        Files.deleteIfExists(meta);
+        Files.deleteIfExists(posts);
+        Files.deleteIfExists(index);
+        state.remove("size");
+        state.remove("count");
+        generation++;
+    }
+
+    /**
+     * Writes posts to the end of posts.ndjson, oldest first.
+     * @param out the stream to write to
+     * @param added the posts, newest first
+     * @return the number of bytes written
+     * @throws IOException an error in writing
+     */
+    private static long write(OutputStream out, List<PostRecord> added) throws IOException {
+        long written = 0;
+        for (int i = added.size() - 1; i >= 0; i--) {
+            byte[] line = (added.get(i).toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+            out.write(line);
+            written += line.length;
+        }
+        out.flush();
+        return written;
+    }
+
+    /**
+     * Parses the posts in part of a file read into memory.
+     * @param bytes the file
+     * @param from the index of the first byte to read
+     * @param to the index after the last byte to read
+     * @return the posts, in the order they appear
+     * @throws IOException a line that is not a post
+     */
+    private static List<PostRecord> parse(ByteBuffer bytes, int from, int to) throws IOException {
+        FeedParser parser = new FeedParser(new BufferInput(bytes.slice(from, to - from)));
+        ArrayList<PostRecord> records = new ArrayList<>();
+        PostRecord record;
+        while ((record = parser.next()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * The posts read from the cache, with the state of the server's copy they were fetched from.
+     */
+    public static class Loaded {
+        private final Properties server; // the state to hand to FeedCache.restore
+        private final List<PostRecord> posts; // the cached posts, oldest first
+
+        /**
+         * @param server the state to hand to FeedCache.restore
+         * @param posts the cached posts, oldest first
+         */
+        Loaded(Properties server, List<PostRecord> posts) {
+            this.server = server;
+            this.posts = posts;
+        }
+
+        /**
+         * @return the state to hand to FeedCache.restore, empty if nothing was cached
+         */
+        public Properties server() {
+            return server;
+        }
+
+        /**
+         * @return the cached posts, oldest first
+         */
+        public List<PostRecord> posts() {
+            return posts;
+        }
+    }
+
+    /**
+     * Reads a file held in memory as a stream, so it can be handed to a FeedParser without copying it again.
+     */
+    private static class BufferInput extends InputStream {
+        private final ByteBuffer buffer; // the part of the file left to read
+
+        /**
+         * @param buffer the part of the file to read
+         */
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+    }
+}
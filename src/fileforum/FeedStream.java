@@ -0,0 +1,185 @@
+package fileforum;
+
+import java.io.*; // import used for reading events
+
+import java.nio.charset.StandardCharsets; // import used for decoding events
+import java.util.ArrayList; // import used for collecting events
+import java.util.HashMap; // import used for building request headers
+import java.util.List; // import used for handing over events
+import java.util.Map; // import used for building request headers
+import java.util.concurrent.*; // import used for the watchdog
+import java.util.function.Consumer; // import used for handing over events
+import java.util.function.LongSupplier; // import used for asking where to resume from
+
+/**
+ * The FeedStream class keeps a connection open to api/events.php and hands over the new posts the server pushes through it (see the PostEvents class).
+ * Events are handed over in batches: everything that arrived together is one batch, so a burst of posts costs the caller one update instead of one per post.
+ *
+ * ### RECONNECTING ###
+ * Whenever the connection ends or fails, it is opened again after a pause that doubles with every failure, up to half a minute, with some randomness so clients do not all come back at once.
+ * Any answer 200 resets the pause. A board without any post yet is answered 404 and tried again the same way, so its first post is picked up once the board exists. Every connection sends the id of the newest post the caller has as Last-Event-ID, so the server resends whatever was missed in between.
+ * A connection that has been silent for longer than the server's heartbeats allow is assumed dead and closed.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class FeedStream implements Closeable {
+    private static final long MIN_BACKOFF = 1000; // the pause before the first attempt to reconnect, in milliseconds
+    private static final long MAX_BACKOFF = 30000; // the longest pause between attempts to reconnect, in milliseconds
+    private static final long SILENCE = 45000; // the number of milliseconds without a byte after which a connection is given up
+
+    private final String EVENTS_URL; // the URL of the stream of events
+    private final Transport transport; // the shared connection to the server
+    private final LongSupplier newest; // the id of the newest post the caller has
+    private final Consumer<List<String>> batch; // called with the data of every batch of events
+    private final Thread reader; // the thread reading the stream
+    private final ScheduledExecutorService watchdog; // the thread closing silent connections
+
+    private volatile Transport.Stream current; // the open connection, or null between connections
+    private volatile long heard; // the time anything was last read, in milliseconds since the epoch
+    private volatile boolean closed; // true once the stream has been closed for good
+
+    /**
+     * Constructor method which prepares a stream without opening it.
+     * @param eventsUrl the URL of the stream of events
+     * @param transport the shared connection to the server
+     * @param newest the id of the newest post the caller has, or -1 if it has none
+     * @param batch called on the reading thread with the data of every batch of events, one line of JSON per post, oldest first
+     */
+    public FeedStream(String eventsUrl, Transport transport, LongSupplier newest, Consumer<List<String>> batch) {
+        EVENTS_URL = eventsUrl;
+        this.transport = transport;
+        this.newest = newest;
+        this.batch = batch;
+        reader = new Thread(this::readLoop, "fileforum-events");
+        reader.setDaemon(true);
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fileforum-events-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Opens the stream in the background.
+     */
+    public void start() {
+        reader.start();
+        watchdog.scheduleWithFixedDelay(() -> {
+            if (System.currentTimeMillis() - heard > SILENCE) {
+                hangUp();
+            }
+        }, SILENCE / 3, SILENCE / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes the stream for good.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        watchdog.shutdownNow();
+        hangUp();
+        reader.interrupt();
+    }
+
+    /**
+     * Closes the open connection, if any, which ends the read in progress.
+     */
+    private void hangUp() {
+        Transport.Stream stream = current;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // the connection is being dropped either way
+            }
+        }
+    }
+
+    /**
+     * Connects, reads and reconnects until the stream is closed.
+     */
+    private void readLoop() {
+        long backoff = MIN_BACKOFF;
+        while (!closed) {
+            try {
+                if (connect()) {
+                    backoff = MIN_BACKOFF;
+                }
+            } catch (Exception e) {
+                // the connection failed or dropped; try again after the pause
+            }
+            if (closed) {
+                return;
+            }
+            try {
+                Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(MAX_BACKOFF, backoff * 2);
+        }
+    }
+
+    /**
+     * Opens one connection and reads events from it until it ends.
+     * @return true if the server answered 200, whether or not any event came
+     * @throws Exception an error in contacting the server or reading the stream
+     */
+    private boolean connect() throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "text/event-stream");
+        headers.put("Cache-Control", "no-cache");
+        headers.put("Accept-Encoding", "identity");
+        long last = newest.getAsLong();
+        if (last >= 0) {
+            headers.put("Last-Event-ID", Long.toString(last));
+        }
+        try (Transport.Stream stream = transport.stream(EVENTS_URL, headers)) {
+            if (stream.status() != 200) {
+                return false;
+            }
+            heard = System.currentTimeMillis();
+            current = stream;
+            try {
+                read(new BufferedReader(new InputStreamReader(stream.body(), StandardCharsets.UTF_8)));
+            } finally {
+                current = null;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads events until the stream ends, handing over a batch whenever nothing more is waiting to be read.
+     * Only the data lines of events are kept; comments, such as heartbeats, only show the connection is alive.
+     * @param in the stream of events
+     * @throws IOException an error in reading the stream
+     */
+    private void read(BufferedReader in) throws IOException {
+        ArrayList<String> events = new ArrayList<>();
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null && !closed) {
+            heard = System.currentTimeMillis();
+            if (line.isEmpty()) {
+                // a blank line ends an event
+                if (data.length() > 0) {
+                    events.add(data.toString());
+                    data.setLength(0);
+                }
+                if (!events.isEmpty() && !in.ready()) {
+                    batch.accept(events);
+                    events = new ArrayList<>();
+                }
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line.substring(line.startsWith("data: ") ? 6 : 5));
+            }
+        }
+    }
+}
@@ -0,0 +1,804 @@
+package fileforum;
+
+import java.io.ByteArrayOutputStream; // import used for joining pushed posts
+import java.io.IOException; // import used for reporting failed POST requests
+import java.net.URLEncoder; // import used for encoding POST requests
+import java.nio.charset.StandardCharsets; // import used for encoding POST requests
+import java.util.ArrayList; // import used for collecting pushed posts
+import java.util.HashMap; // import used for the pages in flight
+import java.util.List; // import used for returning posts
+import java.util.Map; // import used for passing request headers
+import java.util.Properties; // import used for saving the state of the posts database
+import java.util.regex.Pattern; // import used for checking board names
+import java.util.function.Consumer; // import used for handing over the first page of posts early
+
+import java.util.concurrent.*; // import used for running requests in the background
+
+/**
+ * The ForumClient class is responsible for every request the program sends to the server.
+ * It has no GUI code: the Driver and Screen classes call it and decide what to show the user.
+ * Every request runs on a small pool of background threads and returns a CompletableFuture, so the Swing event thread never waits on the network.
+ *
+ * ### COALESCING ###
+ * Fetching the posts database is shared: if a fetch is already in flight, getPost returns the same future instead of starting another one.
+ * Five quick clicks on Refresh therefore turn into a single request.
+ * Callers that lose interest in a result may cancel the future they derived from it without affecting the shared fetch.
+ *
+ * ### CACHE ###
+ * Every post fetched is also kept on disk with its search index (see the FeedStore class), in a directory of its own for each BASE_URL.
+ * The first fetch after the program starts hands the cached posts to its caller before sending any request, newest page first, and then only downloads the posts added while the program was closed.
+ *
+ * ### PAGES ###
+ * latest and page ask the server for one page of posts at a time (api/posts.php and api/search.php; see the PostPage class), so the program never needs the whole board to show or search it.
+ * Servers without those scripts answer 404, after which the client keeps a copy of the whole posts database instead, as described below, and hands it over as a single page.
+ *
+ * ### BOARDS ###
+ * Posts are split into boards. The client made by the constructor is for the general board; board(name) returns the client of any other board, made once and then reused.
+ * Every board has its own copy of its posts, search index, cache on disk and stream of pushed posts, so refreshing, searching or following one board never touches another.
+ * The clients of all boards share the connection, the background threads and the session of the user.
+ *
+ * ### LIVE UPDATES ###
+ * listen opens a stream of the posts the server pushes as they are written (see the FeedStream class).
+ * When the client keeps a copy of the posts database, each batch is added to the index and the cache of the posts database in turn with fetches, so the two never interleave.
+ * A pushed post only counts if its id follows the newest post the client has; a gap means posts were missed, and a normal fetch fills it in.
+ *
+ * ### OUTBOX ###
+ * queuePost writes a post to the outbox on disk (see the Outbox class) and returns as soon as it is there, so posting never waits on the server; pending lists the posts still waiting, to be shown in the meantime.
+ * A single background thread sends the outbox in batches to api/bulk.php, with the idempotency key of every post, and removes the posts the server answered for.
+ * A batch that fails is sent again after a pause that doubles with every failure, up to half a minute; the keys make sure the server never writes a post twice.
+ * Servers without api/bulk.php are sent the posts one at a time through api/post.php instead.
+ *
+ * ### LOGIN ###
+ * Logging in and signing up are a single POST each (api/login.php and api/addUser.php), which answers with a session token.
+ * Every request after that carries the token (see the Transport class), and the server writes posts as the user of the session; a post the server refuses for want of a live session fails with a SessionException.
+ * Any answer from the server proves it can be contacted; only a failure to connect or a 5xx answer is reported as a ConnectException.
+ * Servers without api/login.php fall back to looking up users/&lt;username&gt;/&lt;password&gt;.txt, after a HEAD request for the posts database whose result is remembered for a few seconds.
+ *
+ * ### DIAGNOSTICS ###
+ * Every request runs as an operation named after the method that sends it, timed and counted by the Diagnostics class with its bytes, cache hits and errors.
+ * A ConnectException keeps the error behind it as its cause, so the diagnostics can tell a refused connection from a timeout or an overloaded server.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class ForumClient {
+    private static final int THREADS = 4; // the maximum number of requests in flight at once
+    private static final long PROBE_TTL = 5000; // the number of milliseconds a successful contact with the server is trusted for
+    private static final String FEED = "posts.ndjson"; // the path of the posts database on the server
+    private static final int FIRST_PAGE = 200; // the number of cached posts handed over before the rest are loaded
+    private static final int INDEX_BATCH = 1000; // the number of posts added before the saved search index is worth writing again
+    private static final int PAGE = 100; // the number of posts asked for at a time
+    private static final String GENERAL = "general"; // the board of the client made by the constructor
+    private static final Pattern BOARD_NAME = Pattern.compile("[a-z0-9][a-z0-9_-]{0,31}"); // the names boards may have
+    private static final int BATCH = 100; // the most posts sent from the outbox in one request
+    private static final long LINGER = 20; // the number of milliseconds the outbox waits for more posts before sending a batch
+    private static final long MIN_BACKOFF = 1000; // the pause before sending a failed batch again, in milliseconds
+    private static final long MAX_BACKOFF = 30000; // the longest pause between attempts to send a batch, in milliseconds
+
+    private final String BASE_URL; // the base URL of the server
+    private final String BOARD; // the name of the board the posts are on
+    private final ForumClient root; // the client of the general board, which holds the session and the clients of the other boards
+    private final ConcurrentHashMap<String, ForumClient> boards = new ConcurrentHashMap<>(); // the clients of the other boards, only used on the root
+
+    private final Transport transport; // the shared connection to the server
+    private final ExecutorService executor; // the background threads that send requests
+    private final FeedCache feed; // what the client already has of the posts database
+    private final FeedIndex index = new FeedIndex(); // the posts fetched so far, and their search index
+    private final FeedStore store; // the copy of the posts database on disk, or null if there is none
+    private final Outbox outbox; // the posts waiting to be sent, shared by every board
+
+    private boolean restored; // true once the copy on disk has been read
+
+    private CompletableFuture<List<PostRecord>> pendingFeed; // the fetch of the posts database currently in flight, if any
+    private final Map<String, CompletableFuture<PostPage>> pendingPages = new HashMap<>(); // the fetches of pages currently in flight, by URL
+
+    private volatile long reachableUntil; // the time until which the server is known to be reachable, in milliseconds since the epoch
+    private volatile String session; // the session token of the user logged in, or null if nobody is; only used on the root
+    private volatile String username; // the username of the user logged in, or null if nobody is; only used on the root
+    private volatile boolean sessionEnded; // true if the server refused the session while sending the outbox; only used on the root
+    private volatile Runnable onOutbox; // called whenever posts leave the outbox, or null; only used on the root
+    private Thread sender; // the thread sending the outbox, started by the first login; only used on the root
+    private volatile Boolean paged; // true if the server hands out pages of posts, false if it does not, null until it has been asked
+    private volatile long newestSeen = -1; // the id of the newest post the server has handed out in a page or pushed
+
+    /**
+     * Constructor method which sets up the background threads and the cache of the posts database, keeping a copy of the posts on disk.
+     * @param baseUrl the base URL of the server
+     * @param userAgent the agent on which to send GET and POST requests
+     */
+    public ForumClient(String baseUrl, String userAgent) {
+        this(baseUrl, userAgent, FeedStore.open(baseUrl), Outbox.open(baseUrl));
+    }
+
+    /**
+     * Constructor method which sets up the background threads and the cache of the posts database.
+     * @param baseUrl the base URL of the server
+     * @param userAgent the agent on which to send GET and POST requests
+     * @param store the copy of the posts on disk, or null to keep them in memory only
+     * @param outbox the posts waiting to be sent
+     */
+    public ForumClient(String baseUrl, String userAgent, FeedStore store, Outbox outbox) {
+        BASE_URL = baseUrl;
+        BOARD = GENERAL;
+        root = this;
+        this.store = store;
+        this.outbox = outbox;
+        transport = new Transport(userAgent);
+        feed = new FeedCache(BASE_URL + FEED, transport);
+        executor = Executors.newFixedThreadPool(THREADS, r -> {
+            Thread t = new Thread(r, "fileforum-client");
+            t.setDaemon(true); // do not keep the program alive after the GUI closes
+            return t;
+        });
+    }
+
+    /**
+     * Constructor method which sets up the client of another board, sharing the connection and background threads of the general board's client.
+     * @param root the client of the general board
+     * @param board the name of the board
+     */
+    private ForumClient(ForumClient root, String board) {
+        BASE_URL = root.BASE_URL;
+        BOARD = board;
+        this.root = root;
+        transport = root.transport;
+        executor = root.executor;
+        outbox = root.outbox;
+        store = root.store == null ? null : FeedStore.open(BASE_URL + "boards/" + board + "/");
+        feed = new FeedCache(BASE_URL + "boards/" + board + "/" + FEED, transport);
+    }
+
+    /**
+     * Finds the client of a board, which is made the first time the board is asked for.
+     * @param name the name of the board
+     * @return the client of the board
+     * @throws IllegalArgumentException if the name is not a name boards may have
+     */
+    public ForumClient board(String name) {
+        if (name.equals(GENERAL)) {
+            return root;
+        }
+        if (!BOARD_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Board names are lowercase letters, digits, '-' and '_'");
+        }
+        return root.boards.computeIfAbsent(name, board -> new ForumClient(root, board));
+    }
+
+    /**
+     * @return the name of the board the posts of this client are on
+     */
+    public String boardName() {
+        return BOARD;
+    }
+
+    /**
+     * Sends a GET request for the names of the boards on the server.
+     * Servers without api/boards.php only have the general board.
+     * @return the future of the names, the general board first
+     */
+    public CompletableFuture<List<String>> boards() {
+        return CompletableFuture.supplyAsync(() -> call("boards", () -> {
+            Transport.Response response = send(() -> transport.get(BASE_URL + "api/boards.php", Map.of()));
+            if (response.status() == 404) {
+                return List.of(GENERAL);
+            }
+            if (response.status() != 200) {
+                throw new IOException("Server answered " + response.status());
+            }
+            ArrayList<String> names = new ArrayList<>();
+            for (String line : response.text().split("\n")) {
+                if (!line.isBlank()) {
+                    names.add(line.trim());
+                }
+            }
+            return names;
+        }), executor);
+    }
+
+    /**
+     * Sends a POST request to log a user in.
+     * If there is a connection error, the future fails with a ConnectException.
+     * @param username the username of the user logging in
+     * @param password the password of the user logging in
+     * @return the session token of the user, or null if the credentials do not exist
+     */
+    public CompletableFuture<String> getUser(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> call("getUser", () -> {
+            Transport.Response response = send(() -> transport.post(BASE_URL + "api/login.php", credentials(username, password)));
+            if (response.status() == 200) {
+                return startSession(username, response.text().trim());
+            }
+            if (response.status() == 404) {
+                return startSession(username, getUserFile(username, password));
+            }
+            if (response.status() >= 500) {
+                throw new ConnectException("Cannot contact server: answered " + response.status());
+            }
+            return null;
+        }), executor);
+    }
+
+    /**
+     * Sends a POST request to create a new user, who is logged in by the same request.
+     * If there is a connection error, the future fails with a ConnectException.
+     * If the username is taken, the future fails with an IOException.
+     * @param username the username of the user to create
+     * @param password the password of the user to create
+     * @return the session token of the new user
+     */
+    public CompletableFuture<String> addUser(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> call("addUser", () -> {
+            Transport.Response response = send(() -> transport.post(BASE_URL + "api/addUser.php", credentials(username, password)));
+            if (response.status() != 200) {
+                throw new IOException("Username already taken");
+            }
+            String token = response.text().trim();
+            if (token.isEmpty()) {
+                // servers that do not log new users in answer with an empty body
+                token = getUserFile(username, password);
+                if (token == null) {
+                    throw new IOException("User was not created");
+                }
+            }
+            return startSession(username, token);
+        }), executor);
+    }
+
+    /**
+     * @return the session token of the user logged in, or null if nobody is
+     */
+    public String session() {
+        return root.session;
+    }
+
+    /**
+     * Remembers the session token of the user logged in and sends it with every request from now on, starting to send their posts left in the outbox.
+     * @param username the username of the user
+     * @param token the session token, or null if the credentials do not exist
+     * @return the session token
+     */
+    private String startSession(String username, String token) {
+        if (token == null) {
+            return null;
+        }
+        synchronized (root) {
+            root.session = token;
+            root.username = username;
+            root.sessionEnded = false;
+            transport.session(token);
+            if (root.sender == null) {
+                root.sender = new Thread(root::sendLoop, "fileforum-outbox");
+                root.sender.setDaemon(true);
+                root.sender.start();
+            }
+        }
+        outbox.wake();
+        return token;
+    }
+
+    /**
+     * @return true if the server refused the session of the user while sending their posts, so they must log in again
+     */
+    public boolean sessionEnded() {
+        return root.sessionEnded;
+    }
+
+    /**
+     * Sets what to do whenever posts leave the outbox, or the server refuses the session while sending them.
+     * @param onOutbox called on the sending thread; may be null
+     */
+    public void setOnOutbox(Runnable onOutbox) {
+        root.onOutbox = onOutbox;
+    }
+
+    /**
+     * Encodes credentials as the form of a login or sign-up request.
+     * @param username the username of the user
+     * @param password the password of the user
+     * @return the form
+     */
+    private static String credentials(String username, String password) {
+        return "username=" + URLEncoder.encode(username, StandardCharsets.UTF_8) + "&password=" + URLEncoder.encode(password, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends a GET request to the server to get all posts from the posts database.
+     * Only the posts added since the last call are downloaded; see the FeedCache class.
+     * If a fetch is already in flight, its future is returned instead of starting a new one.
+     * @param firstPage called with the cached posts before the first request is sent, and with the first posts of a full download before it finishes, if this call starts the fetch; may be null
+     * @return the future of every post, newest first; it fails if the server did not answer with the feed
+     */
+    public synchronized CompletableFuture<List<PostRecord>> getPost(Consumer<List<PostRecord>> firstPage) {
+        if (pendingFeed == null || pendingFeed.isDone()) {
+            pendingFeed = CompletableFuture.supplyAsync(() -> call("getPost", () -> refresh(firstPage)), executor);
+        }
+        return pendingFeed;
+    }
+
+    /**
+     * Sends a GET request to the server to get all posts from the posts database; see getPost(Consumer).
+     * @return the future of every post, newest first
+     */
+    public CompletableFuture<List<PostRecord>> getPost() {
+        return getPost(null);
+    }
+
+    /**
+     * Gets the newest page of posts, bringing the copy of the posts database up to date first if the client keeps one.
+     * @param firstPage called with posts to show before the copy is up to date, if the client keeps one; may be null
+     * @return the future of the page
+     */
+    public CompletableFuture<PostPage> latest(Consumer<List<PostRecord>> firstPage) {
+        return paged(null, -1).thenCompose(page -> page != null ? CompletableFuture.completedFuture(page) : getPost(firstPage).thenApply(all -> new PostPage(all, -1)));
+    }
+
+    /**
+     * Gets a page of the posts matching a search, without bringing a copy of the posts database up to date.
+     * @param query the text from the search box, or "" for every post
+     * @param before the cursor of the page: the id below which posts are wanted, or -1 for the newest posts
+     * @return the future of the page
+     */
+    public CompletableFuture<PostPage> page(String query, long before) {
+        return paged(query, before).thenCompose(page -> {
+            if (page != null) {
+                return CompletableFuture.completedFuture(page);
+            }
+            // the copy of the posts database is handed over as a single page
+            if (before >= 0) {
+                return CompletableFuture.completedFuture(new PostPage(List.of(), -1));
+            }
+            return search(query).thenApply(all -> new PostPage(all, -1));
+        });
+    }
+
+    /**
+     * Sends a GET request for a page of posts, unless the server is known not to hand out pages.
+     * If the same page is already being fetched, its future is returned instead of sending the request again.
+     * @param query the text from the search box, "" for every post, or null for the newest posts
+     * @param before the cursor of the page, or -1 for the newest posts
+     * @return the future of the page, or of null if the server does not hand out pages
+     */
+    private synchronized CompletableFuture<PostPage> paged(String query, long before) {
+        if (paged == Boolean.FALSE) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String url = BASE_URL + (query == null || query.isEmpty() ? "api/posts.php?limit=" + PAGE : "api/search.php?limit=" + PAGE + "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8)) + (before >= 0 ? "&before=" + before : "") + boardField("&");
+        pendingPages.values().removeIf(CompletableFuture::isDone);
+        CompletableFuture<PostPage> pending = pendingPages.get(url);
+        if (pending != null) {
+            return pending;
+        }
+        pending = CompletableFuture.supplyAsync(() -> call(query == null || query.isEmpty() ? "page" : "searchPage", () -> {
+            Transport.Response response = send(() -> transport.get(url, Map.of()));
+            if (response.status() == 404) {
+                paged = false;
+                return null;
+            }
+            if (response.status() != 200) {
+                throw new IOException("Server answered " + response.status());
+            }
+            paged = true;
+            List<PostRecord> posts = FeedParser.parse(response.body(), 0, response.body().length);
+            if (before < 0 && !posts.isEmpty()) {
+                newestSeen = Math.max(newestSeen, posts.get(0).id());
+            }
+            String next = response.header("X-Next-Cursor");
+            return new PostPage(posts, next == null ? -1 : Long.parseLong(next.trim()));
+        }), executor);
+        pendingPages.put(url, pending);
+        return pending;
+    }
+
+    /**
+     * Opens a stream of the posts the server pushes as they are written, adding them to the copy of the posts database if the client keeps one.
+     * @param onPosts called in the background after each batch of pushed posts has been taken in
+     * @return the stream, which the caller closes when it no longer wants updates
+     */
+    public FeedStream listen(Runnable onPosts) {
+        FeedStream stream = new FeedStream(BASE_URL + "api/events.php" + boardField("?"), transport, () -> Math.max(newestSeen, index.newestId()), lines -> receive(lines, onPosts));
+        stream.start();
+        return stream;
+    }
+
+    /**
+     * Searches the posts for a phrase using the index of the posts fetched so far; see the FeedIndex class.
+     * No request is sent unless nothing has been fetched yet.
+     * @param query the text from the search box
+     * @return the future of the matching posts, newest first
+     */
+    public CompletableFuture<List<PostRecord>> search(String query) {
+        CompletableFuture<?> posts = index.isEmpty() ? getPost() : CompletableFuture.completedFuture(null);
+        return posts.thenApplyAsync(ignored -> call("search", () -> index.search(query)), executor);
+    }
+
+    /**
+     * Sends a POST request to the server with the content of the post and the username of the poster.
+     * The server gives the post its id and timestamp (see the PostRecord class), and takes the author from the session; the username is only read by servers without sessions.
+     * If the server has no live session for the user, the future fails with a SessionException.
+     * @param username the username of the poster
+     * @param post the String from the text box that is sent for the server to record
+     * @return a future that completes once the server has answered
+     */
+    public CompletableFuture<Void> sendPost(String username, String post) {
+        String urlParameters = "author=" + URLEncoder.encode(username, StandardCharsets.UTF_8) + "&body=" + URLEncoder.encode(post, StandardCharsets.UTF_8) + boardField("&");
+        return CompletableFuture.supplyAsync(() -> call("sendPost", () -> {
+            post(BASE_URL + "api/post.php", urlParameters);
+            return null;
+        }), executor);
+    }
+
+    /**
+     * Writes a post to the outbox, to be sent in the background; see the Outbox class.
+     * The future only fails if the post could not be written to disk.
+     * @param username the username of the poster
+     * @param post the String from the text box that is sent for the server to record
+     * @return the future of the post as it is shown until the server has it, with an id of -1
+     */
+    public CompletableFuture<PostRecord> queuePost(String username, String post) {
+        return CompletableFuture.supplyAsync(() -> call("queuePost", () -> outbox.add(BOARD, username, post)), executor);
+    }
+
+    /**
+     * @return the posts of the user logged in to this board still waiting in the outbox, newest first
+     */
+    public List<PostRecord> pending() {
+        return outbox.pending(BOARD, root.username);
+    }
+
+    /**
+     * Sends the outbox, a batch at a time, for as long as the program runs.
+     */
+    private void sendLoop() {
+        long backoff = MIN_BACKOFF;
+        while (true) {
+            try {
+                List<Outbox.Entry> batch = outbox.take(() -> sessionEnded ? null : username, BATCH, LINGER);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                try {
+                    sendBatch(batch);
+                    backoff = MIN_BACKOFF;
+                } catch (SessionException e) {
+                    // wait for the user to log in again
+                    sessionEnded = true;
+                } catch (Exception e) {
+                    Thread.sleep(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                    backoff = Math.min(MAX_BACKOFF, backoff * 2);
+                    continue;
+                }
+                Runnable listener = onOutbox;
+                if (listener != null) {
+                    listener.run();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a batch of posts from the outbox, removing those the server answered for, as an operation counted by the Diagnostics class.
+     * @param batch the posts, oldest first
+     * @throws Exception a SessionException if the server refused the session, or any error in sending the batch
+     */
+    private void sendBatch(List<Outbox.Entry> batch) throws Exception {
+        try (Diagnostics.Span span = Diagnostics.begin("sendBatch")) {
+            try {
+                StringBuilder lines = new StringBuilder();
+                for (Outbox.Entry entry : batch) {
+                    lines.append("{\"key\":").append(PostRecord.quote(entry.key()))
+                            .append(",\"board\":").append(PostRecord.quote(entry.board()))
+                            .append(",\"body\":").append(PostRecord.quote(entry.post().body())).append("}\n");
+                }
+                Transport.Response response = send(() -> transport.post(BASE_URL + "api/bulk.php", lines.toString(), "application/x-ndjson"));
+                if (response.status() == 404) {
+                    // older servers take one post at a time, without keys
+                    for (Outbox.Entry entry : batch) {
+                        String board = entry.board().equals(GENERAL) ? "" : "&board=" + entry.board();
+                        post(BASE_URL + "api/post.php", "author=" + URLEncoder.encode(entry.post().author(), StandardCharsets.UTF_8) + "&body=" + URLEncoder.encode(entry.post().body(), StandardCharsets.UTF_8) + board);
+                        outbox.remove(List.of(entry.key()));
+                    }
+                    return;
+                }
+                if (response.status() == 401) {
+                    throw new SessionException("Session expired");
+                }
+                if (response.status() != 200) {
+                    throw new IOException("Server answered " + response.status());
+                }
+                ArrayList<String> answered = new ArrayList<>();
+                for (String line : response.text().split("\n")) {
+                    int space = line.indexOf(' ');
+                    if (space > 0) {
+                        answered.add(line.substring(0, space));
+                    }
+                }
+                outbox.remove(answered);
+            } catch (Exception e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Brings the posts up to date with the server, reading the copy on disk first if that has not been done yet.
+     * @param firstPage called with posts to show before the fetch finishes; may be null
+     * @return every post, newest first
+     * @throws Exception an error in retrieval of data
+     */
+    private List<PostRecord> refresh(Consumer<List<PostRecord>> firstPage) throws Exception {
+        if (!restored) {
+            restore(firstPage);
+        }
+        FeedCache.Delta delta = feed.fetch(firstPage);
+        if (delta == null) {
+            throw new IllegalStateException("No posts received");
+        }
+        index.update(delta);
+        cache(delta);
+        return index.search("");
+    }
+
+    /**
+     * Takes in a batch of pushed posts.
+     * Unless the server is known not to hand out pages there is no copy to add them to, so the caller is simply told; otherwise they are queued to be added after the fetch or batch before them.
+     * @param lines the lines of the posts, oldest first
+     * @param onPosts called once the batch has been taken in
+     */
+    private synchronized void receive(List<String> lines, Runnable onPosts) {
+        if (paged != Boolean.FALSE) {
+            for (String line : lines) {
+                newestSeen = Math.max(newestSeen, PostRecord.fromJson(line).id());
+            }
+            onPosts.run();
+            return;
+        }
+        CompletableFuture<List<PostRecord>> previous = pendingFeed == null ? CompletableFuture.completedFuture(null) : pendingFeed;
+        pendingFeed = previous.handleAsync((ignored, f) -> call("push", () -> apply(lines)), executor);
+        pendingFeed.thenRun(onPosts);
+    }
+
+    /**
+     * Adds pushed posts that follow on from the newest post the client has, fetching instead if any were missed.
+     * @param lines the lines of the posts, oldest first
+     * @return every post, newest first
+     * @throws Exception an error in fetching missed posts
+     */
+    private List<PostRecord> apply(List<String> lines) throws Exception {
+        if (!restored || index.isEmpty()) {
+            return refresh(null);
+        }
+        long newest = index.newestId();
+        ArrayList<PostRecord> added = new ArrayList<>();
+        ArrayList<String> kept = new ArrayList<>();
+        boolean missed = false;
+        for (String line : lines) {
+            PostRecord record = PostRecord.fromJson(line);
+            if (record.id() <= newest) {
+                continue; // already fetched
+            }
+            if (record.id() != newest + 1) {
+                missed = true;
+                break;
+            }
+            added.add(0, record);
+            kept.add(0, line);
+            newest++;
+        }
+        if (!added.isEmpty()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (String line : kept) {
+                bytes.writeBytes((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            feed.push(bytes.toByteArray());
+            FeedCache.Delta delta = new FeedCache.Delta(false, added);
+            index.update(delta);
+            cache(delta);
+        }
+        return missed ? refresh(null) : index.search("");
+    }
+
+    /**
+     * Reads the copy of the posts on disk into the index and the cache of the posts database, so the next fetch only asks for what is new.
+     * @param firstPage called with the newest cached posts as soon as they are read, and again with every cached post; may be null
+     * @throws IOException an error in deleting a broken copy
+     */
+    private void restore(Consumer<List<PostRecord>> firstPage) throws IOException {
+        restored = true;
+        if (store == null) {
+            return;
+        }
+        FeedStore.Loaded cached = store.load(FIRST_PAGE, firstPage);
+        if (cached.posts().isEmpty()) {
+            return;
+        }
+        feed.restore(cached.server());
+        index.load(cached.posts(), store.indexFile(), store.generation());
+        if (firstPage != null) {
+            firstPage.accept(index.search(""));
+        }
+    }
+
+    /**
+     * Writes the posts added by a fetch to the copy on disk, and the search index too once enough has been added to it.
+     * A copy that cannot be written is left as it is; the posts are still shown, and the next start simply has less to show early.
+     * @param delta the posts added by the fetch
+     */
+    private void cache(FeedCache.Delta delta) {
+        if (store == null || (!delta.replaced() && delta.added().isEmpty())) {
+            return;
+        }
+        try {
+            Properties state = new Properties();
+            feed.save(state);
+            store.save(delta, state, index.size());
+            if (index.unsaved() > Math.max(INDEX_BATCH, index.size() / 8)) {
+                index.save(store.indexFile(), store.generation());
+            }
+        } catch (IOException e) {
+            // the copy on disk is only a shortcut for the next start
+        }
+    }
+
+    /**
+     * Checks whether a user exists on servers without api/login.php by asking for the file named after their password.
+     * @param username the username of the user logging in
+     * @param password the password of the user logging in
+     * @return the content of the file, or null if the credentials do not exist
+     * @throws Exception a ConnectException if the server cannot be contacted
+     */
+    private String getUserFile(String username, String password) throws Exception {
+        checkServer();
+        Transport.Response response = send(() -> transport.get(BASE_URL + "users/" + username + "/" + password + ".txt", Map.of()));
+        if (response.status() == 200) {
+            return response.text();
+        }
+        return null;
+    }
+
+    /**
+     * Sends a HEAD request for the posts database to check that the server can be contacted.
+     * The answer is remembered for a few seconds, as is any other answer from the server, so most calls cost nothing.
+     * @throws Exception a ConnectException if the server does not answer 200
+     */
+    private void checkServer() throws Exception {
+        try (Diagnostics.Span span = Diagnostics.begin("checkServer")) {
+            boolean remembered = System.currentTimeMillis() < reachableUntil;
+            Diagnostics.cache(remembered);
+            if (remembered) {
+                return;
+            }
+            int responseCode = send(() -> transport.head(BASE_URL + FEED)).status();
+            if (responseCode != 200) {
+                reachableUntil = 0;
+                ConnectException e = new ConnectException("Cannot contact server: answered " + responseCode);
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Sends a request, reporting a failure to connect or an unavailable server (an answer above 500) as a ConnectException.
+     * 500 itself is left to the caller, because older versions of api/addUser.php answer it for a taken username.
+     * Any other answer shows that the server is up, and is remembered as such.
+     * @param request the request to send
+     * @return the answer of the server
+     * @throws Exception a ConnectException if the server cannot be contacted
+     */
+    private Transport.Response send(Callable<Transport.Response> request) throws Exception {
+        Transport.Response response;
+        try {
+            response = request.call();
+        } catch (IOException e) {
+            reachableUntil = 0;
+            throw new ConnectException("Cannot contact server", e);
+        }
+        if (response.status() > 500) {
+            reachableUntil = 0;
+            throw new ConnectException("Cannot contact server: answered " + response.status());
+        }
+        reachableUntil = System.currentTimeMillis() + PROBE_TTL;
+        return response;
+    }
+
+    /**
+     * Sends a POST request with the given body and waits for the answer.
+     * @param address the URL to send the request to
+     * @param body the body of the request
+     * @throws Exception an error in sending data, typically due to server internal issues
+     */
+    private void post(String address, String body) throws Exception {
+        int responseCode = transport.post(address, body).status();
+        if (responseCode == 401) {
+            throw new SessionException("Session expired");
+        }
+        if (responseCode >= 400) {
+            throw new IOException("Server answered " + responseCode);
+        }
+    }
+
+    /**
+     * Names the board in the query or form of a request, leaving it out for the general board so servers without boards understand the request.
+     * @param separator the character joining the field to what comes before it
+     * @return the board field, or "" for the general board
+     */
+    private String boardField(String separator) {
+        return BOARD.equals(GENERAL) ? "" : separator + "board=" + BOARD;
+    }
+
+    /**
+     * Runs a request as an operation counted by the Diagnostics class, passing any checked exception on to the future it runs in.
+     * @param operation the name of the operation
+     * @param request the request to run
+     * @return the result of the request
+     */
+    private static <T> T call(String operation, Callable<T> request) {
+        try (Diagnostics.Span span = Diagnostics.begin(operation)) {
+            try {
+                return request.call();
+            } catch (RuntimeException e) {
+                span.fail(e);
+                throw e;
+            } catch (Exception e) {
+                span.fail(e);
+                throw new CompletionException(e);
+            }
+        }
+    }
+
+    /**
+     * Waits for a request to finish and returns its result.
+     * Meant for callers that are not on the Swing event thread, such as the login prompt.
+     * @param future the future of the request
+     * @return the result of the request
+     * @throws Exception the error the request failed with
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the error a failed future was completed with, unwrapping the CompletionException around it.
+     * @param error the error passed to a whenComplete or exceptionally callback
+     * @return the original error
+     */
+    public static Throwable cause(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Custom exception thrown when response code of GET/POST requests is not 200, indicating connection error.
+     */
+    public static class ConnectException extends Exception {
+        public ConnectException(String s) {
+            super(s);
+        }
+
+        public ConnectException(String s, Throwable cause) {
+            super(s, cause);
+        }
+    }
+
+    /**
+     * Custom exception thrown when the server answers 401, indicating the session of the user has ended and they must log in again.
+     */
+    public static class SessionException extends Exception {
+        public SessionException(String s) {
+            super(s);
+        }
+    }
+}
@@ -0,0 +1,743 @@
+package fileforum;
+
+import com.sun.net.httpserver.*; // import used for serving HTTP requests
+
+import java.io.*; // import used for reading requests and writing responses
+import java.net.InetSocketAddress; // import used for binding the server
+import java.net.URLDecoder; // import used for decoding form fields
+
+import java.nio.charset.StandardCharsets; // import used for encoding responses
+import java.nio.file.*; // import used for locating the data directory
+import java.text.SimpleDateFormat; // import used for formatting Last-Modified dates
+
+import java.util.*; // import used for form fields and dates
+import java.util.concurrent.*; // import used for the request threads
+import java.util.regex.Pattern; // import used for checking board names
+import java.util.zip.GZIPOutputStream; // import used for compressing the posts database
+
+/**
+ * The ForumServer class is a self-contained Java server for the program, standing in for the web server and PHP scripts in api/.
+ * It answers the same requests the Driver and Screen classes send, at the same paths:
+ *      GET/HEAD posts.ndjson       - every post of the general board, newest first, with ETag, Last-Modified, Range and gzip support
+ *      GET/HEAD boards/NAME/posts.ndjson - the same for any other board
+ *      GET api/boards.php          - the names of the boards, one per line
+ *      POST api/post.php           - adds a post (form fields board and body) by the user of the session and answers its id, or 401 without a live session
+ *      POST api/bulk.php           - adds a batch of posts by the user of the session (see BATCHES below) and answers the id of each
+ *      POST api/delete.php         - deletes a post (form fields board and id) written by the user of the session, or 403 for anybody else's
+ *      GET api/events.php          - a stream of server-sent events, one for every new post of a board (see the PostEvents class)
+ *      GET api/posts.php           - one page of posts, newest first (query fields board, before and limit)
+ *      GET api/search.php          - one page of the posts matching a search, newest first (query fields board, q, before and limit)
+ *      POST api/addUser.php        - creates a user (form fields username and password) and answers a session token, or 409 if the username is taken
+ *      POST api/login.php          - answers a session token, or 403 if the credentials do not exist
+ * Requests are handled by a bounded pool of threads.
+ *
+ * ### USERS ###
+ * Users are kept in a UserStore inside the data directory, which checks passwords against salted hashes and hands out session tokens.
+ * A request names its session in an "Authorization: Bearer TOKEN" header. Posts are written as the user of the session, whatever author the form names, so nobody can post as somebody else.
+ * Reading needs no session.
+ *
+ * ### BOARDS ###
+ * Posts are split into boards, each stored in a Shard of its own: the general board in data/posts, any other in data/boards/NAME.
+ * Requests without a board field are for the general board, so older clients keep working.
+ * A board is created by the first post to it, and opened the first time it is used after a restart.
+ * Board names are made of lowercase letters, digits, '-' and '_', at most 32 of them.
+ *
+ * ### BATCHES ###
+ * The body of api/bulk.php is one line of JSON per post, {"key":"...","board":"...","body":"..."}, and the answer is one "key id" line per post, in the same order.
+ * The key is chosen by the client and makes sending a post again harmless: a key the board has seen is answered with the post already written (see the Shard class).
+ * A post that can never be written, such as one for a board whose name is not allowed, is answered with the id -1.
+ * The posts of a batch are committed together, so a burst of posts costs one request and few writes.
+ *
+ * ### PAGES ###
+ * api/posts.php and api/search.php answer in the same NDJSON as posts.ndjson, at most a page at a time, so each request costs the same however large the board is.
+ * "before" is the id below which posts are wanted; the answer names the next one in an X-Next-Cursor header, which is missing on the last page (see the PostPage class).
+ * Searches run on the FeedIndex of the board, which the new posts are added to by a thread of its own right after they are committed.
+ * Pages that run past the hot posts go on into the archive of the board (see COMPACTION below), so every post that was kept can still be paged to and searched.
+ *
+ * ### COMPACTION ###
+ * Every ten minutes a background thread compacts every board in the data directory, opening those not used since the server started (see the Shard class).
+ * Posts older than the hot window leave the post log for a compressed archive, so posts.ndjson, the search index and everyday requests only deal with the recent posts.
+ * Posts older than the retention time, and deleted posts, are dropped altogether; without a retention time posts are kept forever.
+ * The hot window is never longer than the retention time.
+ *
+ * ### USAGE ###
+ *      java -cp app/target/fileforum.jar fileforum.ForumServer [port] [data directory] [hot days] [retention days]
+ * The defaults are port 8080, the directory "data", a hot window of 7 days and no retention time (0). Point BASE_URL in the Driver class at "http://HOST:PORT/".
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class ForumServer {
+    private static final int THREADS = 64; // the maximum number of requests handled at once
+    private static final int PAGE = 50; // the number of posts in a page unless the request asks for another number
+    private static final int MAX_PAGE = 200; // the most posts in a page
+    private static final int MAX_BATCH = 500; // the most posts in a batch sent to api/bulk.php
+    private static final String GENERAL = "general"; // the board of requests that do not name one
+    private static final long DAY = 24L * 60 * 60 * 1000; // the number of milliseconds in a day
+    private static final long HOT = 7 * DAY; // how long posts stay in the post log unless the server is told otherwise
+    private static final long COMPACT_EVERY = 10 * 60 * 1000; // the number of milliseconds between compactions
+    private static final Pattern BOARD_NAME = Pattern.compile("[a-z0-9][a-z0-9_-]{0,31}"); // the names boards may have
+
+    private final HttpServer server; // the HTTP server
+    private final ExecutorService executor; // the threads handling requests
+    private final Path data; // the directory holding the posts and users
+    private final ConcurrentHashMap<String, Shard> shards = new ConcurrentHashMap<>(); // the boards opened so far
+    private final UserStore users; // the accounts and sessions
+    private final long hot; // how long posts stay in the post log, in milliseconds
+    private final long retention; // how long posts are kept at all, in milliseconds, or 0 to keep them forever
+    private final ScheduledExecutorService compactor; // the thread compacting the boards
+
+    /**
+     * Main method which starts a server and keeps it running until the program is stopped.
+     * @param args the port, the data directory, the hot window and the retention time in days, all optional
+     * @throws IOException an error in opening the data directory or binding the port
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        Path data = Paths.get(args.length > 1 ? args[1] : "data");
+        long hot = args.length > 2 ? (long) (Double.parseDouble(args[2]) * DAY) : HOT;
+        long retention = args.length > 3 ? (long) (Double.parseDouble(args[3]) * DAY) : 0;
+        ForumServer forum = new ForumServer(port, data, hot, retention);
+        Runtime.getRuntime().addShutdownHook(new Thread(forum::stop));
+        forum.start();
+        System.out.println("Fileforum server listening on port " + forum.port() + ", data in " + data.toAbsolutePath());
+    }
+
+    /**
+     * Constructor method which opens the data directory and binds the port, without answering requests yet.
+     * @param port the port to listen on, or 0 for any free port
+     * @param data the directory holding the posts and users
+     * @throws IOException an error in opening the data directory or binding the port
+     */
+    public ForumServer(int port, Path data) throws IOException {
+        this(port, data, HOT, 0);
+    }
+
+    /**
+     * Constructor method which opens the data directory and binds the port, without answering requests yet.
+     * @param port the port to listen on, or 0 for any free port
+     * @param data the directory holding the posts and users
+     * @param hot how long posts stay in the post log before they are archived, in milliseconds
+     * @param retention how long posts are kept at all, in milliseconds, or 0 to keep them forever
+     * @throws IOException an error in opening the data directory or binding the port
+     */
+    public ForumServer(int port, Path data, long hot, long retention) throws IOException {
+        this.data = data;
+        this.hot = retention > 0 ? Math.min(hot, retention) : hot;
+        this.retention = retention;
+        users = new UserStore(data.resolve("users.txt"));
+        shard(GENERAL, true);
+        executor = Executors.newFixedThreadPool(THREADS);
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fileforum-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/posts.ndjson", exchange -> feed(exchange, GENERAL));
+        server.createContext("/boards/", this::boardFeed);
+        server.createContext("/api/boards.php", this::boards);
+        server.createContext("/api/post.php", this::post);
+        server.createContext("/api/bulk.php", this::bulk);
+        server.createContext("/api/delete.php", this::delete);
+        server.createContext("/api/events.php", this::events);
+        server.createContext("/api/posts.php", this::page);
+        server.createContext("/api/search.php", this::search);
+        server.createContext("/api/addUser.php", this::addUser);
+        server.createContext("/api/login.php", this::login);
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start() {
+        server.start();
+        compactor.scheduleWithFixedDelay(this::compact, COMPACT_EVERY, COMPACT_EVERY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops answering requests and closes the data directory.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        // a compaction under way is left to finish, since interrupting it would close the files it is writing
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Shard shard : shards.values()) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                // nothing left to do with the log on the way out
+            }
+        }
+    }
+
+    /**
+     * Compacts every board in the data directory, moving old posts into its archive and dropping those past the retention time.
+     * It runs on its own every ten minutes once the server is started.
+     */
+    public void compact() {
+        long now = System.currentTimeMillis();
+        TreeSet<String> names;
+        try {
+            names = boardNames();
+        } catch (IOException e) {
+            // the boards are listed again at the next compaction
+            return;
+        }
+        names.add(GENERAL);
+        for (String name : names) {
+            try {
+                Shard shard = shard(name, false);
+                if (shard != null) {
+                    shard.compact(now - hot, retention > 0 ? now - retention : Long.MIN_VALUE);
+                }
+            } catch (IOException e) {
+                // the posts stay where they were, and the next compaction tries again
+            }
+        }
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Finds the shard of a board, opening it if this is its first use since the server started.
+     * @param name the name of the board, or null for the general board
+     * @param create true to create the board if it does not exist yet
+     * @return the shard, or null if the name is not allowed or the board does not exist and was not to be created
+     * @throws IOException an error in opening the shard
+     */
+    private Shard shard(String name, boolean create) throws IOException {
+        if (name == null || name.isEmpty()) {
+            name = GENERAL;
+        }
+        Shard open = shards.get(name);
+        if (open != null) {
+            return open;
+        }
+        if (!BOARD_NAME.matcher(name).matches()) {
+            return null;
+        }
+        Path dir = name.equals(GENERAL) ? data.resolve("posts") : data.resolve("boards").resolve(name);
+        if (!create && !Files.isDirectory(dir)) {
+            return null;
+        }
+        synchronized (shards) {
+            open = shards.get(name);
+            if (open == null) {
+                open = new Shard(dir, name);
+                shards.put(name, open);
+            }
+            return open;
+        }
+    }
+
+    /**
+     * Answers GET requests for api/boards.php with the name of every board, the general one first.
+     * @param exchange the request
+     * @throws IOException an error in listing the boards or writing the response
+     */
+    private void boards(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            TreeSet<String> names = boardNames();
+            StringBuilder lines = new StringBuilder(GENERAL).append('\n');
+            for (String name : names) {
+                lines.append(name).append('\n');
+            }
+            send(exchange, 200, lines.toString());
+        }
+    }
+
+    /**
+     * Lists the boards in the data directory other than the general one.
+     * @return the names of the boards, in order
+     * @throws IOException an error in listing the boards
+     */
+    private TreeSet<String> boardNames() throws IOException {
+        TreeSet<String> names = new TreeSet<>();
+        Path boards = data.resolve("boards");
+        if (Files.isDirectory(boards)) {
+            try (DirectoryStream<Path> found = Files.newDirectoryStream(boards, Files::isDirectory)) {
+                for (Path board : found) {
+                    names.add(board.getFileName().toString());
+                }
+            }
+        }
+        names.remove(GENERAL);
+        return names;
+    }
+
+    /**
+     * Answers GET and HEAD requests for boards/NAME/posts.ndjson.
+     * @param exchange the request
+     * @throws IOException an error in reading the log or writing the response
+     */
+    private void boardFeed(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        if (parts.length != 4 || !parts[3].equals("posts.ndjson")) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        feed(exchange, parts[2]);
+    }
+
+    /**
+     * Answers GET and HEAD requests for posts.ndjson from a snapshot of the post log.
+     * The ETag names the size of the log and its newest post, so it changes with every post and every compaction.
+     * A single Range is honoured (and If-Range checked) so clients can fetch only the posts added at the front; full answers are compressed for clients that accept gzip.
+     * @param exchange the request
+     * @param board the name of the board
+     * @throws IOException an error in reading the log or writing the response
+     */
+    private void feed(HttpExchange exchange, String board) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Shard shard = shard(board, false);
+            if (shard == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            PostLog.Snapshot snapshot = shard.posts().snapshot();
+            long length = snapshot.length();
+            String eTag = "\"" + length + "-" + snapshot.lastId() + "\"";
+            Headers request = exchange.getRequestHeaders();
+            Headers response = exchange.getResponseHeaders();
+            response.set("Content-Type", "application/x-ndjson; charset=utf-8");
+            response.set("ETag", eTag);
+            response.set("Last-Modified", httpDate(snapshot.lastModified()));
+            response.set("Accept-Ranges", "bytes");
+            if (eTag.equals(request.getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            boolean head = method.equals("HEAD");
+            long[] range = range(request.getFirst("Range"), length);
+            String ifRange = request.getFirst("If-Range");
+            if (range != null && (ifRange == null || ifRange.equals(eTag))) {
+                if (range.length == 0) {
+                    response.set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                response.set("Content-Range", "bytes " + range[0] + "-" + (range[1] - 1) + "/" + length);
+                exchange.sendResponseHeaders(206, head ? -1 : range[1] - range[0]);
+                if (!head) {
+                    snapshot.write(exchange.getResponseBody(), range[0], range[1]);
+                }
+                return;
+            }
+            String accept = request.getFirst("Accept-Encoding");
+            if (!head && accept != null && accept.contains("gzip") && length > 0) {
+                response.set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);
+                GZIPOutputStream out = new GZIPOutputStream(exchange.getResponseBody(), 64 * 1024);
+                snapshot.write(out, 0, length);
+                out.finish();
+                return;
+            }
+            exchange.sendResponseHeaders(200, head || length == 0 ? -1 : length);
+            if (!head) {
+                snapshot.write(exchange.getResponseBody(), 0, length);
+            }
+        }
+    }
+
+    /**
+     * Answers POST requests for api/post.php by appending the post to the log.
+     * The answer is only sent once the post is on disk.
+     * @param exchange the request
+     * @throws IOException an error in reading the request or writing the response
+     */
+    private void post(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> form = form(exchange);
+            String author = user(exchange);
+            if (author == null) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            String body = form.get("body");
+            Shard shard = shard(form.get("board"), true);
+            if (body == null || shard == null) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            PostRecord record;
+            try {
+                record = shard.posts().append(author, body).get();
+            } catch (InterruptedException | ExecutionException e) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            send(exchange, 200, Long.toString(record.id()));
+        }
+    }
+
+    /**
+     * Answers POST requests for api/bulk.php by adding a batch of posts, each to its board, skipping any sent before.
+     * The answer is only sent once every post is on disk.
+     * @param exchange the request
+     * @throws IOException an error in reading the request or writing the response
+     */
+    private void bulk(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String author = user(exchange);
+            if (author == null) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            String[] lines = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).split("\n");
+            if (lines.length > MAX_BATCH) {
+                exchange.sendResponseHeaders(413, -1);
+                return;
+            }
+            // group the posts by board, so each board commits its posts together
+            ArrayList<String> order = new ArrayList<>();
+            HashMap<String, Long> ids = new HashMap<>();
+            LinkedHashMap<Shard, List<String[]>> boards = new LinkedHashMap<>();
+            for (String line : lines) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, String> fields;
+                try {
+                    fields = PostRecord.fields(line);
+                } catch (RuntimeException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                String key = fields.get("key");
+                String body = fields.get("body");
+                if (key == null || key.isEmpty() || key.contains(" ")) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                order.add(key);
+                Shard shard = body == null ? null : shard(fields.get("board"), true);
+                if (shard == null) {
+                    ids.put(key, -1L);
+                } else {
+                    boards.computeIfAbsent(shard, board -> new ArrayList<>()).add(new String[] {key, body});
+                }
+            }
+            try {
+                for (Map.Entry<Shard, List<String[]>> board : boards.entrySet()) {
+                    ArrayList<String> keys = new ArrayList<>();
+                    ArrayList<String> bodies = new ArrayList<>();
+                    for (String[] post : board.getValue()) {
+                        keys.add(post[0]);
+                        bodies.add(post[1]);
+                    }
+                    List<Long> written = board.getKey().post(author, keys, bodies);
+                    for (int i = 0; i < keys.size(); i++) {
+                        ids.put(keys.get(i), written.get(i));
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            StringBuilder answer = new StringBuilder();
+            for (String key : order) {
+                answer.append(key).append(' ').append(ids.get(key)).append('\n');
+            }
+            send(exchange, 200, answer.toString());
+        }
+    }
+
+    /**
+     * Answers POST requests for api/delete.php by giving a post a tombstone, if it was written by the user of the session.
+     * @param exchange the request
+     * @throws IOException an error in reading the request or writing the response
+     */
+    private void delete(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<String, String> form = form(exchange);
+            String author = user(exchange);
+            if (author == null) {
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+            long id = number(form.get("id"), -1);
+            Shard shard = shard(form.get("board"), false);
+            PostRecord record = shard == null || id < 0 ? null : shard.find(id);
+            if (record == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (!record.author().equals(author)) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+            shard.delete(id);
+            send(exchange, 200, Long.toString(id));
+        }
+    }
+
+    /**
+     * Answers GET requests for api/events.php by subscribing them to new posts.
+     * The id of the newest post the client has comes from Last-Event-ID, or from the query "after=ID" for clients that cannot set headers.
+     * The request is left open for the PostEvents class to write to; it does not hold a request thread.
+     * A board that does not exist yet is answered 404 rather than created, since reading needs no session; the client tries again later (see the FeedStream class).
+     * @param exchange the request
+     * @throws IOException an error in writing the response
+     */
+    private void events(HttpExchange exchange) throws IOException {
+        Map<String, String> query = query(exchange);
+        Shard shard = shard(query.get("board"), false);
+        if (!exchange.getRequestMethod().equals("GET") || shard == null) {
+            exchange.sendResponseHeaders(shard == null ? 404 : 405, -1);
+            exchange.close();
+            return;
+        }
+        String after = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        if (after == null) {
+            after = query.get("after");
+        }
+        shard.events().subscribe(exchange, number(after, -1));
+    }
+
+    /**
+     * Answers GET requests for api/posts.php with a page of posts read straight from the post log, so a post is listed as soon as it was answered, or from the archive past the hot posts.
+     * A board that does not exist has no posts.
+     * @param exchange the request
+     * @throws IOException an error in reading the posts or writing the response
+     */
+    private void page(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> query = query(exchange);
+            long before = number(query.get("before"), -1);
+            int limit = (int) Math.max(1, Math.min(MAX_PAGE, number(query.get("limit"), PAGE)));
+            Shard shard = shard(query.get("board"), false);
+            if (shard == null) {
+                sendPage(exchange, new PostPage(List.of(), -1));
+                return;
+            }
+            sendPage(exchange, shard.page(before, limit));
+        }
+    }
+
+    /**
+     * Answers GET requests for api/search.php with a page of the posts matching a search, from the archive too once past the hot posts.
+     * @param exchange the request
+     * @throws IOException an error in reading the archive or writing the response
+     */
+    private void search(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> query = query(exchange);
+            long before = number(query.get("before"), -1);
+            int limit = (int) Math.max(1, Math.min(MAX_PAGE, number(query.get("limit"), PAGE)));
+            Shard shard = shard(query.get("board"), false);
+            sendPage(exchange, shard == null ? new PostPage(List.of(), -1) : shard.search(query.getOrDefault("q", ""), before, limit));
+        }
+    }
+
+    /**
+     * Sends a page of posts as NDJSON, with the cursor of the next page in the X-Next-Cursor header.
+     * @param exchange the request
+     * @param page the page to send
+     * @throws IOException an error in writing the response
+     */
+    private static void sendPage(HttpExchange exchange, PostPage page) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (PostRecord record : page.posts()) {
+            lines.append(record.toJson()).append('\n');
+        }
+        byte[] body = lines.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (page.next() >= 0) {
+            exchange.getResponseHeaders().set("X-Next-Cursor", Long.toString(page.next()));
+        }
+        exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Answers POST requests for api/addUser.php.
+     * @param exchange the request
+     * @throws IOException an error in reading the request or writing the response
+     */
+    private void addUser(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> form = form(exchange);
+            String username = form.get("username");
+            String password = form.get("password");
+            if (username == null || password == null || username.isEmpty() || username.matches(".*\\s.*")) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            String token = users.add(username, password);
+            if (token == null) {
+                exchange.sendResponseHeaders(409, -1);
+                return;
+            }
+            send(exchange, 200, token);
+        }
+    }
+
+    /**
+     * Answers POST requests for api/login.php.
+     * @param exchange the request
+     * @throws IOException an error in reading the request or writing the response
+     */
+    private void login(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> form = form(exchange);
+            String username = form.get("username");
+            String password = form.get("password");
+            String token = username == null || password == null ? null : users.login(username, password);
+            if (token == null) {
+                exchange.sendResponseHeaders(403, -1);
+                return;
+            }
+            send(exchange, 200, token);
+        }
+    }
+
+    /**
+     * Finds the user of the session a request names in its Authorization header.
+     * @param exchange the request
+     * @return the username, or null if the request names no live session
+     */
+    private String user(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        return users.user(authorization.substring(7).trim());
+    }
+
+    /**
+     * Sends a plain text answer.
+     * @param exchange the request
+     * @param status the response code
+     * @param text the body of the answer
+     * @throws IOException an error in writing the response
+     */
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Reads the form fields of a POST request.
+     * @param exchange the request
+     * @return the decoded fields
+     * @throws IOException an error in reading the request
+     */
+    static Map<String, String> form(HttpExchange exchange) throws IOException {
+        return fields(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the fields of the query string of a request.
+     * @param exchange the request
+     * @return the decoded fields
+     */
+    static Map<String, String> query(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        return fields(query == null ? "" : query);
+    }
+
+    /**
+     * Decodes fields written as "name=value&amp;name=value", the way forms and query strings are.
+     * @param encoded the encoded fields
+     * @return the decoded fields
+     */
+    private static Map<String, String> fields(String encoded) {
+        HashMap<String, String> fields = new HashMap<>();
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                fields.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @param value a field holding a number, or null
+     * @param missing the number to use if the field is missing or not a number
+     * @return the number
+     */
+    private static long number(String value, long missing) {
+        try {
+            return value == null ? missing : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return missing;
+        }
+    }
+
+    /**
+     * Reads a single byte range such as "bytes=0-65535", "bytes=100-" or "bytes=-500".
+     * @param header the value of the Range header, or null
+     * @param length the size of the resource
+     * @return null if there is no usable range, an empty array if the range cannot be satisfied, otherwise the first and after-last offsets
+     */
+    private static long[] range(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long from;
+            long to;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                from = Math.max(0, length - suffix);
+                to = length;
+            } else {
+                from = Long.parseLong(spec.substring(0, dash));
+                to = dash == spec.length() - 1 ? length : Math.min(length, Long.parseLong(spec.substring(dash + 1)) + 1);
+            }
+            if (from >= length || from >= to) {
+                return new long[0];
+            }
+            return new long[] {from, to};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param time a time in milliseconds since the epoch
+     * @return the time formatted for an HTTP header
+     */
+    private static String httpDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+}
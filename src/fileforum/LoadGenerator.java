@@ -0,0 +1,458 @@
+package fileforum;
+
+import java.io.IOException; // import used for reporting refused credentials
+import java.nio.file.*; // import used for the data directory of the stand-in server
+
+import java.util.*; // import used for the options, the samples and the report
+import java.util.concurrent.*; // import used for running the simulated users side by side
+import java.util.concurrent.atomic.AtomicLong; // import used for counting errors
+import java.util.function.Supplier; // import used for timing requests
+
+/**
+ * The LoadGenerator class simulates many users of the forum at once, without any GUI, to see how the server behaves under load.
+ * Each simulated user has a ForumClient of their own and sends the same requests the program does: signing up and logging in (Driver.addUser and getUser), refreshing and searching a board (Screen) and posting.
+ *
+ * ### RUN ###
+ * Every user signs up first, and once all of them have, they run operations picked at random from the mix for the given number of seconds.
+ * Each user is a thread of its own that sends one request at a time, optionally pausing between them, so the number of users is the number of requests in flight.
+ * Unless a URL is given, the users are pointed at a ForumServer started in the same process on a fresh data directory, so a run needs nothing else and leaves nothing behind.
+ *
+ * ### MIX ###
+ * The mix names the share of each operation, e.g. "refresh=50,search=25,post=20,login=5" (the default):
+ *      login   - logs the user in again, which checks their password against its hash
+ *      refresh - asks for the newest page of the user's board
+ *      search  - asks for the first page of the posts of the board matching a random word
+ *      post    - writes a post of a few random words to the user's board and waits for the server to answer
+ * With more than one board the users are spread evenly over boards load-0, load-1, ...
+ *
+ * ### REPORT ###
+ * At the end the throughput of each operation is printed with the percentiles of its latency and its number of errors, followed by the causes of the errors.
+ * Every post starts with a marker naming its user and number. Once the run is over the whole of every board is fetched, and each post the server acknowledged is looked for:
+ *      lost       - acknowledged, but not on the board
+ *      duplicated - on the board more than once
+ *      unanswered - on the board although the request failed, e.g. because the answer timed out
+ * The program exits with status 1 if any post was lost or duplicated, so it can check a change to the storage from a script.
+ *
+ * ### USAGE ###
+ *      java -cp app/target/fileforum.jar fileforum.LoadGenerator [--users N] [--seconds N] [--think MS] [--mix MIX] [--boards N] [--url URL]
+ * The defaults are 50 users for 30 seconds without pausing, on one board of a stand-in server.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class LoadGenerator {
+    private static final String USER_AGENT = "fileforum-load/1.1"; // the agent on which to send GET and POST requests
+    private static final String[] OPERATIONS = {"signup", "login", "refresh", "search", "post"}; // the names of the operations, in the order of the constants below
+    private static final int SIGNUP = 0; // the operation signing a user up, run once by each user before the others
+    private static final int LOGIN = 1; // the operation logging a user in again
+    private static final int REFRESH = 2; // the operation asking for the newest page of a board
+    private static final int SEARCH = 3; // the operation searching a board
+    private static final int POST = 4; // the operation writing a post
+    private static final String DEFAULT_MIX = "refresh=50,search=25,post=20,login=5"; // the mix run unless another is given
+    private static final String[] WORDS = {"forum", "files", "folder", "server", "client", "board", "thread", "reply", "search", "index",
+            "java", "swing", "cache", "batch", "queue", "token", "session", "page", "cursor", "stream"}; // the words posts are made of, and searched for
+    private static final double[] PERCENTILES = {0.50, 0.90, 0.99, 0.999}; // the percentiles of latency reported
+
+    private final int users; // the number of users simulated at once
+    private final int seconds; // the length of the run after every user has signed up
+    private final long think; // the average pause between the operations of a user, in milliseconds
+    private final int[] mix; // the cumulative share of each operation, 0 for signup
+    private final int boards; // the number of boards the users are spread over
+    private final String run = Long.toString(System.currentTimeMillis(), 36); // the name of this run, keeping its users and posts apart from those of earlier runs
+
+    private final ConcurrentHashMap<String, AtomicLong> causes = new ConcurrentHashMap<>(); // the number of errors of each cause
+    private final CountDownLatch ready; // counted down by each user once they have signed up
+    private final CountDownLatch go = new CountDownLatch(1); // counted down once every user has signed up
+    private volatile long deadline; // the time at which the users stop, from System.nanoTime
+
+    /**
+     * Main method which runs the load against a server and prints the report.
+     * @param args the options; see USAGE above
+     * @throws Exception an error in starting the stand-in server
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.println("Usage: LoadGenerator [--users N] [--seconds N] [--think MS] [--mix MIX] [--boards N] [--url URL]");
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        LoadGenerator load = new LoadGenerator(Integer.parseInt(options.getOrDefault("users", "50")), Integer.parseInt(options.getOrDefault("seconds", "30")),
+                Long.parseLong(options.getOrDefault("think", "0")), options.getOrDefault("mix", DEFAULT_MIX), Integer.parseInt(options.getOrDefault("boards", "1")));
+
+        String url = options.get("url");
+        ForumServer server = null;
+        Path data = null;
+        if (url == null) {
+            data = Files.createTempDirectory("fileforum-load");
+            server = new ForumServer(0, data);
+            server.start();
+            url = "http://localhost:" + server.port() + "/";
+        } else if (!url.endsWith("/")) {
+            url += "/";
+        }
+        System.out.println("Running " + load.users + " users for " + load.seconds + " s against " + url + (server == null ? "" : " (stand-in server)"));
+        boolean intact = load.run(url);
+        if (server != null) {
+            server.stop();
+            delete(data);
+        }
+        System.exit(intact ? 0 : 1);
+    }
+
+    /**
+     * Constructor method which checks the options of a run.
+     * @param users the number of users simulated at once
+     * @param seconds the length of the run after every user has signed up
+     * @param think the average pause between the operations of a user, in milliseconds
+     * @param mix the share of each operation, e.g. "refresh=50,post=50"
+     * @param boards the number of boards the users are spread over
+     * @throws IllegalArgumentException if an option is out of range or the mix names an unknown operation
+     */
+    public LoadGenerator(int users, int seconds, long think, String mix, int boards) {
+        if (users < 1 || seconds < 1 || think < 0 || boards < 1) {
+            throw new IllegalArgumentException("Users, seconds and boards must be positive");
+        }
+        this.users = users;
+        this.seconds = seconds;
+        this.think = think;
+        this.boards = boards;
+        this.mix = new int[OPERATIONS.length];
+        for (String part : mix.split(",")) {
+            String[] share = part.trim().split("=");
+            int operation = Arrays.asList(OPERATIONS).indexOf(share[0].trim());
+            if (share.length != 2 || operation <= SIGNUP) {
+                throw new IllegalArgumentException("Unknown operation in mix: " + part);
+            }
+            this.mix[operation] = Integer.parseInt(share[1].trim());
+        }
+        for (int i = 1; i < this.mix.length; i++) {
+            this.mix[i] += this.mix[i - 1];
+        }
+        if (this.mix[this.mix.length - 1] <= 0) {
+            throw new IllegalArgumentException("The mix has no operations");
+        }
+        ready = new CountDownLatch(users);
+    }
+
+    /**
+     * Runs the load, checks the posts written and prints the report.
+     * @param url the base URL of the server
+     * @return true if no acknowledged post was lost or duplicated
+     * @throws InterruptedException if the run is interrupted
+     */
+    public boolean run(String url) throws InterruptedException {
+        ArrayList<User> all = new ArrayList<>();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            User user = new User(i, url);
+            Thread thread = new Thread(user, "fileforum-load-" + i);
+            thread.setDaemon(true);
+            all.add(user);
+            threads.add(thread);
+        }
+        long signupStart = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        ready.await();
+        long signupTime = System.nanoTime() - signupStart;
+        long start = System.nanoTime();
+        deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Samples[] samples = new Samples[OPERATIONS.length];
+        long[] errors = new long[OPERATIONS.length];
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            samples[op] = new Samples();
+            for (User user : all) {
+                samples[op].addAll(user.samples[op]);
+                errors[op] += user.errors[op];
+            }
+        }
+        report(samples, errors, signupTime, elapsed);
+        return verify(url, all);
+    }
+
+    /**
+     * Prints the throughput, latency and errors of each operation, and the causes of the errors.
+     * @param samples the latencies of the operations that succeeded, in nanoseconds
+     * @param errors the number of operations that failed
+     * @param signupTime the time every user took to sign up, in nanoseconds
+     * @param elapsed the length of the run, in nanoseconds
+     */
+    private void report(Samples[] samples, long[] errors, long signupTime, long elapsed) {
+        System.out.println();
+        System.out.printf("%-8s %8s %7s %9s %9s %9s %9s %9s %9s%n", "op", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long count = 0;
+        long failed = 0;
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            Samples s = samples[op];
+            long time = op == SIGNUP ? signupTime : elapsed;
+            System.out.printf("%-8s %8d %7d %9.1f", OPERATIONS[op], s.size(), errors[op], s.size() * 1e9 / time);
+            for (double p : PERCENTILES) {
+                System.out.printf(" %9.2f", s.percentile(p) / 1e6);
+            }
+            System.out.printf(" %9.2f%n", s.percentile(1) / 1e6);
+            if (op != SIGNUP) {
+                count += s.size();
+                failed += errors[op];
+            }
+        }
+        System.out.printf("%nThroughput %.1f ops/s over %.1f s, error rate %.2f%%%n", count * 1e9 / elapsed, elapsed / 1e9, count + failed == 0 ? 0 : 100.0 * failed / (count + failed));
+        if (!causes.isEmpty()) {
+            System.out.println("Errors:");
+            new TreeMap<>(causes).forEach((cause, n) -> System.out.println("    " + n + " x " + cause));
+        }
+    }
+
+    /**
+     * Fetches every board used and looks for each post written during the run.
+     * @param url the base URL of the server
+     * @param all the simulated users
+     * @return true if no acknowledged post was lost or duplicated
+     */
+    private boolean verify(String url, List<User> all) {
+        HashMap<String, Integer> seen = new HashMap<>();
+        ForumClient reader = new ForumClient(url, USER_AGENT, null, new Outbox());
+        String prefix = "L" + run + "-";
+        for (int b = 0; b < boards; b++) {
+            try {
+                for (PostRecord post : ForumClient.await(reader.board(board(b)).getPost())) {
+                    String body = post.body();
+                    if (body.startsWith(prefix)) {
+                        int space = body.indexOf(' ');
+                        seen.merge(space < 0 ? body : body.substring(0, space), 1, Integer::sum);
+                    }
+                }
+            } catch (Exception e) {
+                System.out.println("Could not fetch board " + board(b) + " to check the posts: " + ForumClient.cause(e));
+                return false;
+            }
+        }
+        long acknowledged = 0;
+        long lost = 0;
+        long duplicated = 0;
+        long unanswered = 0;
+        for (User user : all) {
+            for (String marker : user.acknowledged) {
+                acknowledged++;
+                Integer n = seen.get(marker);
+                if (n == null) {
+                    lost++;
+                } else if (n > 1) {
+                    duplicated++;
+                }
+            }
+            for (String marker : user.unanswered) {
+                if (seen.containsKey(marker)) {
+                    unanswered++;
+                }
+            }
+        }
+        System.out.printf("%nWrites: %d acknowledged, %d lost, %d duplicated, %d written without an answer%n", acknowledged, lost, duplicated, unanswered);
+        return lost == 0 && duplicated == 0;
+    }
+
+    /**
+     * @param i the number of a board
+     * @return the name of the board
+     */
+    private String board(int i) {
+        return boards == 1 ? "general" : "load-" + i;
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     * @param dir the directory
+     */
+    private static void delete(Path dir) {
+        try (java.util.stream.Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            // a temporary directory left behind is harmless
+        }
+    }
+
+    /**
+     * The User class is one simulated user, with a ForumClient and a session of their own.
+     */
+    private class User implements Runnable {
+        private final int number; // the number of the user in the run
+        private final String username; // the username of the user
+        private final String password; // the password of the user
+        private final ForumClient client; // the client of the general board, holding the session
+        private final ForumClient board; // the client of the board the user reads and writes
+        private final Samples[] samples = new Samples[OPERATIONS.length]; // the latencies of the operations that succeeded, in nanoseconds
+        private final long[] errors = new long[OPERATIONS.length]; // the number of operations that failed
+        private final ArrayList<String> acknowledged = new ArrayList<>(); // the markers of the posts the server answered for
+        private final ArrayList<String> unanswered = new ArrayList<>(); // the markers of the posts whose request failed
+        private int posts; // the number of posts written so far
+
+        /**
+         * Constructor method which sets up the client of a user, without sending any request.
+         * @param number the number of the user in the run
+         * @param url the base URL of the server
+         */
+        User(int number, String url) {
+            this.number = number;
+            username = "load" + run + "u" + number;
+            password = "pw" + Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+            client = new ForumClient(url, USER_AGENT, null, new Outbox());
+            board = client.board(board(number % boards));
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                samples[op] = new Samples();
+            }
+        }
+
+        /**
+         * Signs the user up, waits for every other user to have done so, then runs operations from the mix until the deadline.
+         */
+        public void run() {
+            boolean signedUp = timed(SIGNUP, () -> client.addUser(username, password));
+            ready.countDown();
+            try {
+                go.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!signedUp) {
+                return;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (System.nanoTime() < deadline) {
+                int pick = random.nextInt(mix[mix.length - 1]);
+                int op = SIGNUP + 1;
+                while (mix[op] <= pick) {
+                    op++;
+                }
+                switch (op) {
+                    case LOGIN:
+                        timed(LOGIN, () -> client.getUser(username, password).thenApply(token -> {
+                            if (token == null) {
+                                throw new CompletionException(new IOException("Credentials refused"));
+                            }
+                            return token;
+                        }));
+                        break;
+                    case REFRESH:
+                        timed(REFRESH, () -> board.latest(null));
+                        break;
+                    case SEARCH:
+                        timed(SEARCH, () -> board.page(WORDS[random.nextInt(WORDS.length)], -1));
+                        break;
+                    default:
+                        post(random);
+                }
+                if (think > 0) {
+                    try {
+                        Thread.sleep(random.nextLong(2 * think + 1));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes a post of a few random words, starting with its marker, and remembers whether the server answered for it.
+         * @param random the source of the words
+         */
+        private void post(ThreadLocalRandom random) {
+            String marker = "L" + run + "-" + number + "-" + posts++;
+            StringBuilder body = new StringBuilder(marker);
+            for (int i = 3 + random.nextInt(6); i > 0; i--) {
+                body.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (timed(POST, () -> board.sendPost(username, body.toString()))) {
+                acknowledged.add(marker);
+            } else {
+                unanswered.add(marker);
+            }
+        }
+
+        /**
+         * Sends a request and waits for it, recording its latency if it succeeded and its cause if it failed.
+         * @param op the operation the request belongs to
+         * @param request starts the request
+         * @return true if the request succeeded
+         */
+        private boolean timed(int op, Supplier<CompletableFuture<?>> request) {
+            long start = System.nanoTime();
+            try {
+                ForumClient.await(request.get());
+                samples[op].add(System.nanoTime() - start);
+                return true;
+            } catch (Exception e) {
+                errors[op]++;
+                Throwable cause = ForumClient.cause(e);
+                causes.computeIfAbsent(OPERATIONS[op] + ": " + cause.getClass().getSimpleName() + ": " + cause.getMessage(), c -> new AtomicLong()).incrementAndGet();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The Samples class holds the latencies of one operation as a growing array of longs, sorted once when percentiles are asked for.
+     */
+    private static class Samples {
+        private long[] values = new long[1024]; // the latencies, in nanoseconds
+        private int size; // the number of latencies held
+        private boolean sorted; // true if the latencies have been sorted since the last one was added
+
+        /**
+         * Adds a latency.
+         * @param value the latency, in nanoseconds
+         */
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            sorted = false;
+        }
+
+        /**
+         * Adds every latency of another set.
+         * @param other the other set
+         */
+        void addAll(Samples other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+            sorted = false;
+        }
+
+        /**
+         * @return the number of latencies held
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Finds the latency below which the given share of the latencies lie.
+         * @param p the share, from 0 to 1
+         * @return the latency, in nanoseconds, or 0 if there are none
+         */
+        long percentile(double p) {
+            if (size == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+            return values[Math.max(0, (int) Math.ceil(p * size) - 1)];
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package fileforum;
+
+import java.io.*; // import used for reading and writing the outbox file
+
+import java.nio.ByteBuffer; // import used for appending to the outbox file
+import java.nio.channels.FileChannel; // import used for appending to and syncing the outbox file
+import java.nio.channels.FileLock; // import used for keeping other copies of the program out of the outbox
+import java.nio.charset.StandardCharsets; // import used for encoding the outbox file
+import java.nio.file.*; // import used for locating the outbox file
+
+import java.util.ArrayList; // import used for holding the posts waiting to be sent
+import java.util.Collection; // import used for removing sent posts
+import java.util.List; // import used for handing over posts
+import java.util.Map; // import used for reading lines of the outbox file
+import java.util.UUID; // import used for generating idempotency keys
+import java.util.function.Supplier; // import used for asking whose posts may be sent
+
+/**
+ * The Outbox class holds the posts a user has written but the server has not yet taken, so posting never waits on the server and a post is never lost to a server that is slow or down.
+ * A post is written to the outbox file, and synced to disk, before the user is told it was posted; it stays there until the server answers that it has it.
+ * The file is ~/.fileforum/outbox/NAME.ndjson, one line of JSON per post, oldest first, where NAME is the hash the FeedStore class names a server's cache after:
+ *      {"key":"...","board":"general","author":"alice","time":1552176000000,"body":"Hello"}
+ *
+ * ### IDEMPOTENCY ###
+ * Every post gets a random key when it is written. The server remembers the keys of the posts it has taken and answers a key it has seen with the post it already wrote, so a batch sent again after a timeout or a crash never posts anything twice.
+ *
+ * ### BATCHES ###
+ * The ForumClient class takes posts from the outbox in batches, waiting a moment after the first one so a burst of posts goes out as one request, and removes them once the server has answered.
+ * Only the posts of the user logged in are handed out, so posts written by one user are never sent with the session of another.
+ * Only one copy of the program can use an outbox file at a time; any other keeps its outbox in memory.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class Outbox {
+    private final Path file; // the outbox file, or null if the outbox is only kept in memory
+    private final FileLock lock; // the lock keeping other copies of the program out of the file, held for as long as the outbox is open, or null
+    private final ArrayList<Entry> entries = new ArrayList<>(); // the posts waiting to be sent, oldest first
+
+    /**
+     * Constructor method which sets up an outbox kept in memory only, whose posts are lost if the program closes before they are sent.
+     */
+    public Outbox() {
+        file = null;
+        lock = null;
+    }
+
+    /**
+     * Constructor method which reads the posts left in an outbox file, creating it if needed.
+     * Lines that cannot be read, such as one cut short by a crash, are dropped.
+     * @param file the outbox file
+     * @param lock the lock held on the file
+     * @throws IOException an error in reading the file
+     */
+    private Outbox(Path file, FileLock lock) throws IOException {
+        this.file = file;
+        this.lock = lock;
+        if (!Files.exists(file)) {
+            return;
+        }
+        boolean broken = false;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            try {
+                Map<String, String> fields = PostRecord.fields(line);
+                PostRecord post = new PostRecord(-1, fields.get("author"), Long.parseLong(fields.get("time")), fields.get("body"));
+                if (fields.get("key") == null || post.author() == null || post.body() == null) {
+                    throw new IllegalArgumentException("Outbox line is missing a field");
+                }
+                entries.add(new Entry(fields.get("key"), fields.getOrDefault("board", "general"), post));
+            } catch (RuntimeException e) {
+                broken = true;
+            }
+        }
+        if (broken) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Opens the outbox of a server in the home directory of the user.
+     * @param baseUrl the base URL of the server
+     * @return the outbox, kept in memory only if the file cannot be used, such as when another copy of the program holds it
+     */
+    public static Outbox open(String baseUrl) {
+        try {
+            Path dir = Paths.get(System.getProperty("user.home"), ".fileforum", "outbox");
+            Files.createDirectories(dir);
+            String name = FeedStore.name(baseUrl);
+            FileChannel channel = FileChannel.open(dir.resolve(name + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                channel.close();
+                return new Outbox();
+            }
+            return new Outbox(dir.resolve(name + ".ndjson"), lock);
+        } catch (Exception e) {
+            return new Outbox();
+        }
+    }
+
+    /**
+     * Writes a post to the outbox, returning only once it is on disk.
+     * @param board the name of the board of the post
+     * @param author the username of the poster
+     * @param body the text of the post
+     * @return the post as it will be shown until the server has it, with an id of -1
+     * @throws IOException an error in writing the file
+     */
+    public synchronized PostRecord add(String board, String author, String body) throws IOException {
+        Entry entry = new Entry(UUID.randomUUID().toString(), board, new PostRecord(-1, author, System.currentTimeMillis(), body));
+        if (file != null) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap((entry.toJson() + "\n").getBytes(StandardCharsets.UTF_8)));
+                channel.force(false);
+            }
+        }
+        entries.add(entry);
+        notifyAll();
+        return entry.post;
+    }
+
+    /**
+     * Waits for posts to send and hands over the oldest of them, without removing them.
+     * Once there is one, waits a moment longer for others written right after it, so they can go out together.
+     * @param author asks for the username of the user logged in, or null if nobody is
+     * @param max the most posts to hand over
+     * @param linger the number of milliseconds to wait for more posts after the first
+     * @return the oldest posts of the user logged in, oldest first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized List<Entry> take(Supplier<String> author, int max, long linger) throws InterruptedException {
+        List<Entry> batch;
+        while ((batch = oldest(author.get(), max)).isEmpty()) {
+            wait();
+        }
+        long until = System.currentTimeMillis() + linger;
+        long left;
+        while (batch.size() < max && (left = until - System.currentTimeMillis()) > 0) {
+            wait(left);
+            batch = oldest(author.get(), max);
+        }
+        return batch;
+    }
+
+    /**
+     * Wakes the thread waiting in take, such as after another user logged in.
+     */
+    public synchronized void wake() {
+        notifyAll();
+    }
+
+    /**
+     * Removes posts the server has answered for.
+     * @param keys the idempotency keys of the posts
+     * @throws IOException an error in writing the file
+     */
+    public synchronized void remove(Collection<String> keys) throws IOException {
+        if (entries.removeIf(entry -> keys.contains(entry.key))) {
+            rewrite();
+        }
+    }
+
+    /**
+     * @param board the name of a board
+     * @param author the username of the user logged in, or null if nobody is
+     * @return the posts of the user to the board still waiting to be sent, newest first
+     */
+    public synchronized List<PostRecord> pending(String board, String author) {
+        ArrayList<PostRecord> pending = new ArrayList<>();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            if (entry.board.equals(board) && entry.post.author().equals(author)) {
+                pending.add(entry.post);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @param author the username of the user logged in, or null if nobody is
+     * @param max the most posts to return
+     * @return the oldest posts of the user, oldest first
+     */
+    private List<Entry> oldest(String author, int max) {
+        ArrayList<Entry> batch = new ArrayList<>();
+        for (int i = 0; i < entries.size() && batch.size() < max && author != null; i++) {
+            if (entries.get(i).post.author().equals(author)) {
+                batch.add(entries.get(i));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Replaces the outbox file with the posts still waiting, in one move.
+     * @throws IOException an error in writing the file
+     */
+    private void rewrite() throws IOException {
+        if (file == null) {
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder lines = new StringBuilder();
+            for (Entry entry : entries) {
+                lines.append(entry.toJson()).append('\n');
+            }
+            channel.write(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(false);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A post waiting to be sent.
+     */
+    public static class Entry {
+        private final String key; // the idempotency key of the post
+        private final String board; // the name of the board of the post
+        private final PostRecord post; // the post, with an id of -1
+
+        /**
+         * @param key the idempotency key of the post
+         * @param board the name of the board of the post
+         * @param post the post, with an id of -1
+         */
+        Entry(String key, String board, PostRecord post) {
+            this.key = key;
+            this.board = board;
+            this.post = post;
+        }
+
+        /**
+         * @return the idempotency key of the post
+         */
+        public String key() {
+            return key;
+        }
+
+        /**
+         * @return the name of the board of the post
+         */
+        public String board() {
+            return board;
+        }
+
+        /**
+         * @return the post, with an id of -1
+         */
+        public PostRecord post() {
+            return post;
+        }
+
+        /**
+         * @return the post as a line of the outbox file, without the new line at the end
+         */
+        String toJson() {
+            return "{\"key\":" + PostRecord.quote(key) + ",\"board\":" + PostRecord.quote(board) + ",\"author\":" + PostRecord.quote(post.author()) + ",\"time\":" + post.time() + ",\"body\":" + PostRecord.quote(post.body()) + "}";
+        }
+    }
+}
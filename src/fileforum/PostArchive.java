@@ -0,0 +1,643 @@
+package fileforum;
+
+import java.io.*; // import used for reading and writing archive parts
+
+import java.nio.ByteBuffer; // import used for reading blocks and the index of a part
+import java.nio.channels.FileChannel; // import used for reading parts
+import java.nio.charset.StandardCharsets; // import used for encoding posts
+import java.nio.file.*; // import used for finding, replacing and deleting parts
+
+import java.util.ArrayList; // import used for collecting posts and parts
+import java.util.Arrays; // import used for growing the index of a part and finding tombstones
+import java.util.List; // import used for returning posts
+import java.util.function.LongPredicate; // import used for skipping deleted posts
+import java.util.zip.DataFormatException; // import used for reporting a damaged block
+import java.util.zip.Deflater; // import used for compressing blocks
+import java.util.zip.Inflater; // import used for decompressing blocks
+
+/**
+ * The PostArchive class keeps the old posts of a board once they have left its PostLog, compressed, in immutable files called parts.
+ * Day-to-day traffic never touches it: the newest posts are all in the log, and the archive is only read when a page or a search goes past them.
+ *
+ * ### PARTS ###
+ * A part holds a run of posts with consecutive ids, oldest first, as lines of JSON cut into blocks of about 64 kilobytes, each compressed on its own.
+ * After the blocks comes a sparse index, one entry per block with its first and last id, its first and last time and where it is in the file, and then a footer pointing at the index.
+ * Only the index of each part is held in memory, so finding a post or the start of a page costs a binary search and one block read, however large the archive is.
+ * A part is written to a temporary file and moved into place once complete, so a crash never leaves half a part behind, and is never changed afterwards.
+ *
+ * ### RETENTION ###
+ * prune drops posts older than the retention time, and posts that have been deleted, by writing a part again without them; a part with nothing left is deleted.
+ * Every part counts the readers using it, and a part that was replaced is only closed once the last of them is done, so readers are never cut off.
+ * The new part is moved into place before the old one is deleted; if the server stops in between, both are found on the next start, and the older of the two, the one with the lower number, is deleted then.
+ * The id through which the log has been archived is kept in through.txt, so posts the log has already given up are never archived twice and their ids are never given out again.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class PostArchive implements Closeable {
+    private static final int MAGIC = 0x46415243; // the last bytes of every part, "FARC"
+    private static final int BLOCK = 64 * 1024; // the number of bytes of posts compressed together
+    private static final int SCAN = 64; // the most blocks a search reads for one page
+    private static final String PREFIX = "archive-"; // the start of the name of every part
+    private static final String SUFFIX = ".arc"; // the end of the name of every part
+
+    private final Path dir; // the directory holding the parts
+    private final Path throughFile; // the file holding the id through which the log has been archived
+    private volatile Part[] parts; // every part, oldest first
+    private int nextNumber; // the number of the next part written
+    private volatile long through; // the id through which the log has been archived, or 0
+
+    /**
+     * Constructor method which opens the archive in a directory, creating it if needed, and reads the index of every part.
+     * @param dir the directory holding the parts
+     * @throws IOException an error in reading a part
+     */
+    public PostArchive(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        throughFile = dir.resolve("through.txt");
+        ArrayList<Part> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // a part that was being written when the server stopped
+                    Files.delete(file);
+                } else if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    int number = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                    found.add(new Part(file, number));
+                    nextNumber = Math.max(nextNumber, number + 1);
+                }
+            }
+        }
+        // a part written again without some of its posts overlaps the part it replaced until that one is deleted
+        found.sort((a, b) -> Integer.compare(b.number, a.number));
+        ArrayList<Part> kept = new ArrayList<>(found.size());
+        for (Part part : found) {
+            boolean replaced = false;
+            for (Part newer : kept) {
+                replaced |= part.firstId() <= newer.lastId() && newer.firstId() <= part.lastId();
+            }
+            if (replaced) {
+                part.retire();
+                Files.delete(part.file);
+            } else {
+                kept.add(part);
+            }
+        }
+        kept.sort((a, b) -> Long.compare(a.firstId(), b.firstId()));
+        parts = kept.toArray(new Part[0]);
+        if (Files.exists(throughFile)) {
+            through = Long.parseLong(new String(Files.readAllBytes(throughFile), StandardCharsets.UTF_8).trim());
+        }
+        if (!kept.isEmpty()) {
+            through = Math.max(through, parts[parts.length - 1].lastId());
+        }
+    }
+
+    /**
+     * @return the id through which the log has been archived, or 0 if nothing has been
+     */
+    public long through() {
+        return through;
+    }
+
+    /**
+     * Records that every post of the log up to an id is archived, even those left out as deleted or too old.
+     * @param id the id of the newest post archived
+     * @throws IOException an error in writing the file
+     */
+    public synchronized void archived(long id) throws IOException {
+        Path temp = dir.resolve("through.tmp");
+        Files.write(temp, Long.toString(id).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, throughFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        through = Math.max(through, id);
+    }
+
+    /**
+     * @return the number of posts archived
+     */
+    public long count() {
+        long count = 0;
+        for (Part part : parts) {
+            count += part.count();
+        }
+        return count;
+    }
+
+    /**
+     * Starts a new part, to be filled with posts newer than every post archived.
+     * @return the writer of the part, which adds it to the archive when committed
+     * @throws IOException an error in creating the file
+     */
+    public synchronized Writer writer() throws IOException {
+        return new Writer(null, nextNumber++);
+    }
+
+    /**
+     * Finds a single post.
+     * @param id the id of the post
+     * @return the post, or null if it is not archived
+     * @throws IOException an error in reading the part holding it
+     */
+    public PostRecord find(long id) throws IOException {
+        Part[] parts = acquire();
+        try {
+            for (Part part : parts) {
+                if (id >= part.firstId() && id <= part.lastId()) {
+                    for (PostRecord post : part.block(part.blockBefore(id + 1))) {
+                        if (post.id() == id) {
+                            return post;
+                        }
+                    }
+                }
+            }
+            return null;
+        } finally {
+            release(parts);
+        }
+    }
+
+    /**
+     * Finds a page of archived posts, newest first, reading only the blocks the page needs.
+     * A search reads no more than a fixed number of blocks per page, and may hand back a short page with a cursor to carry on from.
+     * @param query the text from the search box, or "" for every post (see FeedIndex.matches)
+     * @param before the id below which posts are wanted, or -1 for the newest archived posts
+     * @param limit the most posts to return
+     * @param deleted true for the ids of posts that are deleted but may still be archived
+     * @return the posts, and the cursor of the next page
+     * @throws IOException an error in reading a part
+     */
+    public PostPage page(String query, long before, int limit, LongPredicate deleted) throws IOException {
+        Part[] parts = acquire();
+        try {
+            return page(parts, query, before, limit, deleted);
+        } finally {
+            release(parts);
+        }
+    }
+
+    /**
+     * Finds a page of archived posts in parts the caller is using.
+     * @param parts every part, oldest first
+     * @param query the text from the search box, or "" for every post
+     * @param before the id below which posts are wanted, or -1 for the newest archived posts
+     * @param limit the most posts to return
+     * @param deleted true for the ids of posts that are deleted but may still be archived
+     * @return the posts, and the cursor of the next page
+     * @throws IOException an error in reading a part
+     */
+    private static PostPage page(Part[] parts, String query, long before, int limit, LongPredicate deleted) throws IOException {
+        ArrayList<PostRecord> found = new ArrayList<>();
+        long below = before < 0 ? Long.MAX_VALUE : before;
+        int scanned = 0;
+        for (int p = parts.length - 1; p >= 0 && limit > 0; p--) {
+            Part part = parts[p];
+            for (int b = part.blockBefore(below); b >= 0; b--) {
+                if (scanned == SCAN) {
+                    // carry on below the last block read, whether or not it matched
+                    return new PostPage(found, below);
+                }
+                scanned++;
+                List<PostRecord> block = part.block(b);
+                for (int i = block.size() - 1; i >= 0; i--) {
+                    PostRecord post = block.get(i);
+                    if (post.id() < below && !deleted.test(post.id()) && FeedIndex.matches(post, query)) {
+                        found.add(post);
+                        if (found.size() == limit) {
+                            return new PostPage(found, post.id());
+                        }
+                    }
+                }
+                below = part.firstIds[b];
+            }
+        }
+        return new PostPage(found, -1);
+    }
+
+    /**
+     * Writes every part holding posts older than a time or deleted posts again without them.
+     * @param oldest the time of the oldest post kept, in milliseconds since the epoch, or Long.MIN_VALUE to keep posts forever
+     * @param deleted the ids of deleted posts, in increasing order
+     * @throws IOException an error in reading or writing a part
+     */
+    public synchronized void prune(long oldest, long[] deleted) throws IOException {
+        for (Part part : parts) {
+            int tombstone = Arrays.binarySearch(deleted, part.firstId());
+            if (tombstone < 0) {
+                tombstone = -tombstone - 1;
+            }
+            boolean holdsDeleted = tombstone < deleted.length && deleted[tombstone] <= part.lastId();
+            if (part.firstTime() >= oldest && !holdsDeleted) {
+                continue;
+            }
+            try (Writer writer = new Writer(part, nextNumber++)) {
+                if (part.lastTime() >= oldest) {
+                    for (int b = 0; b < part.blocks; b++) {
+                        for (PostRecord post : part.block(b)) {
+                            if (post.time() >= oldest && Arrays.binarySearch(deleted, post.id()) < 0) {
+                                writer.add(post);
+                            }
+                        }
+                    }
+                }
+                writer.commit();
+            }
+        }
+    }
+
+    /**
+     * Closes every part.
+     * @throws IOException an error in closing a part
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        Part[] closed = parts;
+        parts = new Part[0];
+        for (Part part : closed) {
+            part.retire();
+        }
+    }
+
+    /**
+     * Starts using every part, so none of them is closed until the caller is done.
+     * @return every part, oldest first, to be handed to release once the caller is done
+     */
+    private Part[] acquire() {
+        while (true) {
+            Part[] current = parts;
+            int held = 0;
+            while (held < current.length && current[held].acquire()) {
+                held++;
+            }
+            if (held == current.length) {
+                return current;
+            }
+            // a part was replaced and closed in the meantime, so the parts are newer than the ones taken
+            for (int i = 0; i < held; i++) {
+                current[i].release();
+            }
+        }
+    }
+
+    /**
+     * Stops using parts, closing any that were replaced while they were in use.
+     * @param held the parts from acquire
+     */
+    private static void release(Part[] held) {
+        for (Part part : held) {
+            part.release();
+        }
+    }
+
+    /**
+     * Puts a part in the archive, or takes one out; the part taken out is closed once no reader is using it.
+     * @param replaced the part taken out, or null
+     * @param added the part put in, or null
+     * @throws IOException an error in deleting a part
+     */
+    private synchronized void replace(Part replaced, Part added) throws IOException {
+        ArrayList<Part> changed = new ArrayList<>(Arrays.asList(parts));
+        if (replaced != null) {
+            changed.remove(replaced);
+        }
+        if (added != null) {
+            changed.add(added);
+            changed.sort((a, b) -> Long.compare(a.firstId(), b.firstId()));
+        }
+        parts = changed.toArray(new Part[0]);
+        if (replaced != null) {
+            // the file goes now, so it is never read again after a restart; readers still using the part keep it open
+            Files.deleteIfExists(replaced.file);
+            replaced.retire();
+        }
+    }
+
+    /**
+     * @param number the number of a part
+     * @return the path of the part file
+     */
+    private Path partPath(int number) {
+        return dir.resolve(String.format("%s%08d%s", PREFIX, number, SUFFIX));
+    }
+
+    /**
+     * Writes a single part, a block at a time, and puts it in the archive once committed.
+     * Closing a writer that was not committed throws away what it wrote.
+     */
+    public class Writer implements Closeable {
+        private final Part replaced; // the part the new one takes the place of, or null for a new part
+        private final int number; // the number of the new part
+        private final Path file; // where the part goes once complete
+        private final Path temp; // where the part is written
+        private final DataOutputStream out; // the temporary file
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK + 4096); // the lines of the block being filled
+        private final Deflater deflater = new Deflater(); // compresses each block
+        private final byte[] buffer = new byte[BLOCK]; // the compressed bytes on their way to the file
+        private long[] index = new long[8 * 64]; // eight numbers per block, see Part
+        private int blocks; // the number of blocks written
+        private long offset; // the number of bytes written to the file
+        private long firstId; // the id of the first post of the block being filled
+        private long firstTime; // the time of the first post of the block being filled
+        private long lastId; // the id of the last post added
+        private long lastTime; // the time of the last post added
+        private int posts; // the number of posts in the block being filled
+        private boolean committed; // true once the part is in the archive
+
+        /**
+         * @param replaced the part the new one takes the place of, or null for a new part
+         * @param number the number of the new part
+         * @throws IOException an error in creating the file
+         */
+        Writer(Part replaced, int number) throws IOException {
+            this.replaced = replaced;
+            this.number = number;
+            file = partPath(number);
+            temp = file.resolveSibling(file.getFileName() + ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024));
+        }
+
+        /**
+         * Adds a post after every post added so far.
+         * @param post the post, newer than every post added so far
+         * @throws IOException an error in writing the file
+         */
+        public void add(PostRecord post) throws IOException {
+            if (block.size() == 0) {
+                firstId = post.id();
+                firstTime = post.time();
+            }
+            byte[] line = (post.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+            block.write(line, 0, line.length);
+            lastId = post.id();
+            lastTime = post.time();
+            posts++;
+            if (block.size() >= BLOCK) {
+                flush();
+            }
+        }
+
+        /**
+         * Finishes the part with its index, makes it durable and puts it in the archive.
+         * A part without any post is not kept; if it was to replace one, that part is just taken out.
+         * @throws IOException an error in writing the file
+         */
+        public void commit() throws IOException {
+            flush();
+            long indexOffset = offset;
+            for (int i = 0; i < blocks * 8; i++) {
+                out.writeLong(index[i]);
+            }
+            out.writeInt(blocks);
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.close();
+            committed = true;
+            if (blocks == 0) {
+                Files.delete(temp);
+                if (replaced != null) {
+                    replace(replaced, null);
+                }
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            replace(replaced, new Part(file, number));
+        }
+
+        /**
+         * Throws away the part unless it was committed.
+         * @throws IOException an error in deleting the file
+         */
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            if (!committed) {
+                out.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        /**
+         * Compresses the block being filled into the file and records it in the index.
+         * @throws IOException an error in writing the file
+         */
+        private void flush() throws IOException {
+            if (block.size() == 0) {
+                return;
+            }
+            byte[] lines = block.toByteArray();
+            deflater.reset();
+            deflater.setInput(lines);
+            deflater.finish();
+            long length = 0;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+                length += n;
+            }
+            if (blocks * 8 == index.length) {
+                index = Arrays.copyOf(index, index.length * 2);
+            }
+            long[] entry = {firstId, lastId, firstTime, lastTime, offset, length, lines.length, posts};
+            System.arraycopy(entry, 0, index, blocks * 8, 8);
+            blocks++;
+            offset += length;
+            block.reset();
+            posts = 0;
+        }
+    }
+
+    /**
+     * A single part file, with its index in memory.
+     * The index holds eight longs per block: its first id, last id, first time, last time, offset, compressed length, length and number of posts.
+     */
+    private static class Part {
+        private final Path file; // the path of the part file
+        private final int number; // the number of the part, higher for parts written later
+        private final FileChannel channel; // the open part file
+        private final int blocks; // the number of blocks
+        private final long[] firstIds; // the id of the first post of every block
+        private final long[] index; // eight numbers per block, as described above
+        private int readers; // the number of readers using the part
+        private boolean retired; // true once the part has been taken out of the archive
+        private boolean closed; // true once the file has been closed
+
+        /**
+         * Opens a part file and reads its index.
+         * @param file the path of the part file
+         * @param number the number of the part
+         * @throws IOException an error in reading the file, or a file that is not a complete part
+         */
+        Part(Path file, int number) throws IOException {
+            this.file = file;
+            this.number = number;
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                ByteBuffer footer = read(channel.size() - 16, 16);
+                blocks = footer.getInt();
+                long indexOffset = footer.getLong();
+                if (footer.getInt() != MAGIC || blocks <= 0) {
+                    throw new IOException("Not an archive part: " + file);
+                }
+                index = new long[blocks * 8];
+                read(indexOffset, blocks * 64).asLongBuffer().get(index);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e instanceof IOException ? (IOException) e : new IOException("Not an archive part: " + file, e);
+            }
+            firstIds = new long[blocks];
+            for (int b = 0; b < blocks; b++) {
+                firstIds[b] = index[b * 8];
+            }
+        }
+
+        /**
+         * Starts using the part.
+         * @return false if the part has already been closed
+         */
+        synchronized boolean acquire() {
+            if (closed) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        /**
+         * Stops using the part, closing it if it was taken out of the archive and this was the last reader.
+         */
+        synchronized void release() {
+            readers--;
+            if (retired && readers == 0) {
+                closeFile();
+            }
+        }
+
+        /**
+         * Takes the part out of use, closing it now if no reader is using it, otherwise once the last one is done.
+         */
+        synchronized void retire() {
+            retired = true;
+            if (readers == 0) {
+                closeFile();
+            }
+        }
+
+        /**
+         * Closes the file of the part.
+         */
+        private void closeFile() {
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing is read from the part any more
+            }
+        }
+
+        /**
+         * @return the id of the oldest post
+         */
+        long firstId() {
+            return index[0];
+        }
+
+        /**
+         * @return the id of the newest post
+         */
+        long lastId() {
+            return index[(blocks - 1) * 8 + 1];
+        }
+
+        /**
+         * @return the time of the oldest post
+         */
+        long firstTime() {
+            return index[2];
+        }
+
+        /**
+         * @return the time of the newest post
+         */
+        long lastTime() {
+            return index[(blocks - 1) * 8 + 3];
+        }
+
+        /**
+         * @return the number of posts
+         */
+        long count() {
+            long count = 0;
+            for (int b = 0; b < blocks; b++) {
+                count += index[b * 8 + 7];
+            }
+            return count;
+        }
+
+        /**
+         * @param id a post id
+         * @return the last block starting below the id, or -1 if there is none
+         */
+        int blockBefore(long id) {
+            int found = Arrays.binarySearch(firstIds, id);
+            return found >= 0 ? found - 1 : -found - 2;
+        }
+
+        /**
+         * Reads and decompresses a block.
+         * @param b the number of the block
+         * @return the posts of the block, oldest first
+         * @throws IOException an error in reading the file, or a damaged block
+         */
+        List<PostRecord> block(int b) throws IOException {
+            ByteBuffer compressed = read(index[b * 8 + 4], (int) index[b * 8 + 5]);
+            byte[] lines = new byte[(int) index[b * 8 + 6]];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed.array());
+                int n = 0;
+                while (n < lines.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(lines, n, lines.length - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("block cut short");
+                    }
+                    n += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Damaged archive block in " + file, e);
+            } finally {
+                inflater.end();
+            }
+            ArrayList<PostRecord> posts = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < lines.length; i++) {
+                if (lines[i] == '\n') {
+                    posts.add(PostRecord.fromJson(new String(lines, start, i - start, StandardCharsets.UTF_8)));
+                    start = i + 1;
+                }
+            }
+            return posts;
+        }
+
+        /**
+         * @param position the offset of the first byte in the file
+         * @param length the number of bytes
+         * @return the bytes read
+         * @throws IOException an error in reading the file, or a file that is too short
+         */
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Archive part cut short: " + file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package fileforum;
+
+import com.sun.net.httpserver.HttpExchange; // import used for holding the connections of subscribers
+
+import java.io.*; // import used for writing events
+
+import java.nio.charset.StandardCharsets; // import used for encoding events
+import java.util.ArrayDeque; // import used for the events waiting for each subscriber
+import java.util.ArrayList; // import used for holding subscribers
+import java.util.Iterator; // import used for dropping subscribers
+import java.util.List; // import used for receiving committed posts
+import java.util.concurrent.*; // import used for the thread sending events
+
+/**
+ * The PostEvents class pushes every new post to the clients subscribed to api/events.php, as server-sent events, so they do not have to poll the posts database.
+ * Each event is one post:
+ *      id: 42
+ *      data: {"id":42,"author":"...","time":...,"body":"..."}
+ * The data is the exact line the post has in posts.ndjson, so a client may add it to its copy of the file as it is.
+ *
+ * ### RESUMING ###
+ * A client reconnecting sends the id of the newest post it has as Last-Event-ID, and is first sent every post after it.
+ * If it missed more than a few pages of posts, it is only sent the newest one; the gap in the ids tells it to fetch the rest from posts.ndjson.
+ *
+ * ### THREADS ###
+ * A subscriber holds no request thread. A single thread per board decides what every subscriber is sent, and also sends a comment line every few seconds so dead connections are found and dropped.
+ * Posts are handed to that thread by the post log, so writing to slow clients never holds up a commit.
+ * That thread never writes to a connection itself: it queues the text for the subscriber, and a pooled thread writes it, so a client that stops reading only holds up its own events.
+ * A subscriber whose queue grows past a fixed size has fallen behind and is disconnected; when it reconnects it catches up from its Last-Event-ID like any other client.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class PostEvents implements Closeable {
+    private static final int CATCH_UP = 1000; // the most missed posts sent to a client that reconnects
+    private static final long HEARTBEAT = 15000; // the number of milliseconds between comment lines to idle subscribers
+    private static final int BACKLOG = 1024 * 1024; // the most bytes queued for a subscriber before it is disconnected
+
+    private final PostLog posts; // the posts of the board
+    private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>(); // the work waiting for the sending thread
+    private final ArrayList<Subscriber> subscribers = new ArrayList<>(); // the open connections, only touched by the sending thread
+    private final Thread sender; // the thread deciding what every subscriber is sent
+    private final ExecutorService writers; // the threads writing the queued events of the subscribers
+
+    private volatile boolean closed; // true once no more events are sent
+
+    /**
+     * Constructor method which starts pushing the posts committed to a log.
+     * @param posts the posts of the board
+     */
+    public PostEvents(PostLog posts) {
+        this.posts = posts;
+        writers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fileforum-events-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        posts.listen(committed -> tasks.add(() -> broadcast(committed)));
+        sender = new Thread(this::sendLoop, "fileforum-events");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Keeps a request open as a subscription, sending it the posts after the given id and then every new one.
+     * @param exchange the GET request for api/events.php
+     * @param after the id of the newest post the client has, or -1 if it has none
+     * @throws IOException an error in writing the response headers
+     */
+    public void subscribe(HttpExchange exchange, long after) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        Subscriber subscriber = new Subscriber(exchange, after, writers);
+        tasks.add(() -> join(subscriber));
+    }
+
+    /**
+     * Stops sending events and closes every subscription.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        sender.interrupt();
+    }
+
+    /**
+     * Runs the work handed to the sending thread, and sends heartbeats when there is none.
+     */
+    private void sendLoop() {
+        while (!closed) {
+            Runnable task;
+            try {
+                task = tasks.poll(HEARTBEAT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (task != null) {
+                task.run();
+            } else {
+                for (Iterator<Subscriber> i = subscribers.iterator(); i.hasNext(); ) {
+                    Subscriber subscriber = i.next();
+                    if (!subscriber.send(": keepalive\n\n")) {
+                        i.remove();
+                    }
+                }
+            }
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.drop();
+        }
+        subscribers.clear();
+        // the writers close the connections they were handed, then finish
+        writers.shutdown();
+    }
+
+    /**
+     * Sends a new subscriber the posts it missed and adds it to the subscribers.
+     * @param subscriber the new subscriber
+     */
+    private void join(Subscriber subscriber) {
+        PostLog.Snapshot snapshot = posts.snapshot();
+        try {
+            // walk back from the newest post to the first one the subscriber does not have
+            int first = snapshot.count();
+            while (first > 0 && snapshot.count() - first < CATCH_UP && snapshot.record(first - 1).id() > subscriber.last) {
+                first--;
+            }
+            if (first > 0 && snapshot.record(first - 1).id() > subscriber.last) {
+                // too far behind to catch up here, so only send the newest post
+                first = snapshot.count() - 1;
+            }
+            StringBuilder missed = new StringBuilder();
+            for (int i = first; i < snapshot.count(); i++) {
+                event(missed, snapshot.record(i));
+            }
+            if (missed.length() > 0 && !subscriber.send(missed.toString())) {
+                return;
+            }
+        } catch (IOException e) {
+            subscriber.drop();
+            return;
+        }
+        // a client ahead of the server (one that was reset) gets every post from here on
+        subscriber.last = snapshot.lastId();
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Sends a committed batch of posts to every subscriber that does not have them yet.
+     * @param committed the posts, oldest first
+     */
+    private void broadcast(List<PostRecord> committed) {
+        for (Iterator<Subscriber> i = subscribers.iterator(); i.hasNext(); ) {
+            Subscriber subscriber = i.next();
+            StringBuilder events = new StringBuilder();
+            for (PostRecord record : committed) {
+                if (record.id() > subscriber.last) {
+                    event(events, record);
+                    subscriber.last = record.id();
+                }
+            }
+            if (events.length() > 0 && !subscriber.send(events.toString())) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Writes a post as an event.
+     * @param events the text to add the event to
+     * @param record the post
+     */
+    private static void event(StringBuilder events, PostRecord record) {
+        events.append("id: ").append(record.id()).append("\ndata: ").append(record.toJson()).append("\n\n");
+    }
+
+    /**
+     * An open subscription, with the events waiting to be written to it.
+     */
+    private static class Subscriber {
+        private final HttpExchange exchange; // the request being answered
+        private final OutputStream out; // the body of the answer
+        private final Executor writers; // the threads writing the queued events
+        private final ArrayDeque<byte[]> queue = new ArrayDeque<>(); // the text waiting to be written, guarded by the subscriber
+        private long last; // the id of the newest post the client has, only touched by the sending thread
+        private int queued; // the number of bytes in the queue
+        private boolean writing; // true while a writer is emptying the queue
+        private boolean dropped; // true once the subscription is to be closed
+
+        /**
+         * @param exchange the request being answered
+         * @param last the id of the newest post the client has
+         * @param writers the threads writing the queued events
+         */
+        Subscriber(HttpExchange exchange, long last, Executor writers) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+            this.last = last;
+            this.writers = writers;
+        }
+
+        /**
+         * Queues text to be written to the client, without waiting for it to be written.
+         * A client with too much text still waiting for it has fallen behind, and is disconnected instead.
+         * @param text the text to send
+         * @return false if the subscription is closed
+         */
+        synchronized boolean send(String text) {
+            if (dropped) {
+                return false;
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (queued > 0 && queued + bytes.length > BACKLOG) {
+                drop();
+                return false;
+            }
+            queue.add(bytes);
+            queued += bytes.length;
+            if (!writing) {
+                writing = true;
+                writers.execute(this::write);
+            }
+            return true;
+        }
+
+        /**
+         * Throws away what is waiting to be written and closes the subscription once no writer is using it.
+         */
+        synchronized void drop() {
+            dropped = true;
+            queue.clear();
+            queued = 0;
+            if (!writing) {
+                // closing may block on a client that stopped reading, so it is left to a writer
+                writing = true;
+                writers.execute(this::write);
+            }
+        }
+
+        /**
+         * Writes the queued text until there is none left, closing the subscription if it is dropped or the client has gone away.
+         */
+        private void write() {
+            while (true) {
+                byte[] bytes;
+                synchronized (this) {
+                    bytes = dropped ? null : queue.poll();
+                    if (bytes == null && !dropped) {
+                        writing = false;
+                        return;
+                    }
+                    if (bytes != null) {
+                        queued -= bytes.length;
+                    }
+                }
+                if (bytes == null) {
+                    exchange.close();
+                    return;
+                }
+                try {
+                    out.write(bytes);
+                    out.flush();
+                } catch (IOException e) {
+                    synchronized (this) {
+                        dropped = true;
+                        queue.clear();
+                        queued = 0;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package fileforum;
+
+import javax.swing.*; // import used for GUI
+import javax.swing.border.*; // import used for borders
+import java.awt.*; // import used for GUI
+import java.awt.event.*; // import used for event handling
+
+import java.util.ArrayList; // import used for joining pages of posts
+import java.util.Collections; // import used for the empty list of posts
+import java.util.HashMap; // import used for caching row heights
+import java.util.List; // import used for holding the posts
+
+import java.text.SimpleDateFormat; // import used for formatting timestamps
+
+/**
+ * The PostList class shows the posts as a scrolling list with one row per post, in place of one large HTML document.
+ * Only the rows on screen are painted, and rows are only added to the list as the user scrolls towards the bottom, a page at a time.
+ * The height of each row is measured once for the current width and cached, so scrolling and adding rows do not lay out text again.
+ * New posts arriving at the top while the user is reading further down do not move what they are reading; the list only follows them if it is scrolled to the top.
+ * Once every post handed to the list is in it, scrolling towards the bottom asks the owner of the list for the next page of older posts.
+ * Posts are told apart by their ids, so pages fetched separately line up with the posts already shown.
+ * Posts the user wrote that the server does not have yet are shown above every other post, marked as being sent, until they are replaced by the posts the server wrote.
+ * Posts are shown as plain text, followed by the username of the poster and the time they posted.
+ * Handing posts to the list and painting the rows are timed as the "render" and "paint" operations of the Diagnostics class.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class PostList extends JScrollPane {
+    private static final int PAGE = 200; // the number of rows added to the list at a time
+
+    private final JList<PostRecord> list; // the list of rows
+    private final PostModel model = new PostModel(); // the posts, and how many of them are in the list
+    private final PostRenderer renderer = new PostRenderer(); // the component painting each row
+
+    private Runnable nearEnd; // asks for older posts once every post is in the list, or null
+
+    /**
+     * Constructor method which sets up an empty list inside the scroll pane.
+     */
+    public PostList() {
+        list = new JList<>(model) {
+            @Override
+            protected void paintComponent(Graphics g) {
+                Diagnostics.time("paint", () -> super.paintComponent(g));
+            }
+        };
+        list.setCellRenderer(renderer);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        setViewportView(list);
+        setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
+        setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        // add a page of rows whenever the user gets close to the bottom
+        getVerticalScrollBar().addAdjustmentListener(e -> {
+            BoundedRangeModel bar = getVerticalScrollBar().getModel();
+            if (bar.getValue() + bar.getExtent() * 3 >= bar.getMaximum() && !model.loadMore() && nearEnd != null) {
+                nearEnd.run();
+            }
+        });
+        // rows wrap to the width of the list, so their heights change with it
+        list.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (renderer.setWidth(list.getWidth())) {
+                    model.relayout();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets what to do when the user scrolls close to the bottom and every post is already in the list.
+     * @param nearEnd asks for the next page of older posts and hands it to addOlder
+     */
+    public void setNearEnd(Runnable nearEnd) {
+        this.nearEnd = nearEnd;
+    }
+
+    /**
+     * Replaces the posts shown above every other post as being sent.
+     * @param pending the posts waiting to be sent, newest first
+     */
+    public void setPending(List<PostRecord> pending) {
+        model.setPending(pending);
+    }
+
+    /**
+     * Adds a page of posts older than every post shown, after them.
+     * @param older the posts, newest first
+     */
+    public void addOlder(List<PostRecord> older) {
+        Diagnostics.time("render", () -> model.append(older));
+    }
+
+    /**
+     * Adds the posts of a page that are newer than every post shown, in front of them, keeping the list where it is.
+     * @param page the newest posts, newest first
+     * @return false if every post of the page is newer than those shown, so posts may be missing between them and the page should replace the list instead
+     */
+    public boolean addNewer(List<PostRecord> page) {
+        if (model.loaded == 0) {
+            return false;
+        }
+        long top = model.posts.get(0).id();
+        int newer = 0;
+        while (newer < page.size() && page.get(newer).id() > top) {
+            newer++;
+        }
+        if (newer == page.size()) {
+            return false;
+        }
+        if (newer > 0) {
+            ArrayList<PostRecord> joined = new ArrayList<>(page.subList(0, newer));
+            joined.addAll(model.posts);
+            setPosts(joined);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the posts shown and scrolls back to the top.
+     * If the new posts only add to the end of the ones shown, such as the rest of a download whose first page is shown, the list keeps its place instead.
+     * @param posts the posts to show, newest first
+     */
+    public void setPosts(List<PostRecord> posts) {
+        Diagnostics.time("render", () -> {
+            if (model.continues(posts)) {
+                model.extend(posts);
+                return;
+            }
+            int added = model.prepended(posts);
+            if (added > 0) {
+                int value = getVerticalScrollBar().getValue();
+                model.prepend(posts, added);
+                if (value > 0) {
+                    // keep the rows being read where they were by scrolling down past the new ones
+                    int first = model.pending.size();
+                    int height = list.getCellBounds(first, first + added - 1).height;
+                    validate();
+                    getVerticalScrollBar().setValue(value + height);
+                }
+                return;
+            }
+            renderer.trim(PAGE * 4);
+            model.setPosts(posts);
+            getVerticalScrollBar().setValue(0);
+        });
+    }
+
+    /**
+     * The posts shown, of which only the first few pages are handed to the list, after the posts waiting to be sent.
+     */
+    private static class PostModel extends AbstractListModel<PostRecord> {
+        private List<PostRecord> pending = Collections.emptyList(); // the posts waiting to be sent, newest first, all in the list
+        private List<PostRecord> posts = Collections.emptyList(); // every post that can be shown, newest first
+        private int loaded; // the number of posts in the list, not counting those waiting to be sent
+
+        @Override
+        public int getSize() {
+            return pending.size() + loaded;
+        }
+
+        @Override
+        public PostRecord getElementAt(int index) {
+            return index < pending.size() ? pending.get(index) : posts.get(index - pending.size());
+        }
+
+        /**
+         * Replaces the posts waiting to be sent.
+         * @param pending the posts waiting to be sent, newest first
+         */
+        void setPending(List<PostRecord> pending) {
+            if (pending.isEmpty() && this.pending.isEmpty()) {
+                return;
+            }
+            int removed = this.pending.size();
+            this.pending = pending;
+            if (removed > 0) {
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+            if (!pending.isEmpty()) {
+                fireIntervalAdded(this, 0, pending.size() - 1);
+            }
+        }
+
+        /**
+         * Replaces the posts and puts only the first page of them in the list.
+         * @param posts every post that can be shown, newest first
+         */
+        void setPosts(List<PostRecord> posts) {
+            int removed = loaded;
+            this.posts = posts;
+            loaded = 0;
+            if (removed > 0) {
+                fireIntervalRemoved(this, pending.size(), pending.size() + removed - 1);
+            }
+            loadMore();
+        }
+
+        /**
+         * @param posts every post that can be shown, newest first
+         * @return true if the posts start with the ones in the list
+         */
+        boolean continues(List<PostRecord> posts) {
+            return loaded > 0 && posts.size() >= loaded && posts.get(0).id() == this.posts.get(0).id() && posts.get(loaded - 1).id() == this.posts.get(loaded - 1).id();
+        }
+
+        /**
+         * @param posts every post that can be shown, newest first
+         * @return the number of posts in front of the ones in the list, if the posts go on with every one of those; otherwise -1
+         */
+        int prepended(List<PostRecord> posts) {
+            if (loaded == 0) {
+                return -1;
+            }
+            long first = this.posts.get(0).id();
+            for (int added = 1; added <= PAGE && added + loaded <= posts.size(); added++) {
+                if (posts.get(added).id() == first) {
+                    return posts.get(added + loaded - 1).id() == this.posts.get(loaded - 1).id() ? added : -1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Replaces the posts with ones that have new posts in front of those in the list, adding the new ones to the list.
+         * @param posts every post that can be shown, newest first
+         * @param added the number of new posts in front
+         */
+        void prepend(List<PostRecord> posts, int added) {
+            this.posts = posts;
+            loaded += added;
+            fireIntervalAdded(this, pending.size(), pending.size() + added - 1);
+        }
+
+        /**
+         * Replaces the posts with ones that start with those in the list, keeping the list as it is.
+         * @param posts every post that can be shown, newest first
+         */
+        void extend(List<PostRecord> posts) {
+            this.posts = posts;
+            if (loaded < PAGE) {
+                loadMore();
+            }
+        }
+
+        /**
+         * Adds older posts after every post, putting them in the list if the list holds every other post.
+         * @param older the posts, newest first
+         */
+        void append(List<PostRecord> older) {
+            ArrayList<PostRecord> joined = new ArrayList<>(posts);
+            joined.addAll(older);
+            posts = joined;
+            loadMore();
+        }
+
+        /**
+         * Puts the next page of posts in the list, if there are any left.
+         * @return true if any posts were put in the list
+         */
+        boolean loadMore() {
+            int more = Math.min(posts.size(), loaded + PAGE);
+            if (more > loaded) {
+                int first = loaded;
+                loaded = more;
+                fireIntervalAdded(this, pending.size() + first, pending.size() + more - 1);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Makes the list measure every row again.
+         */
+        void relayout() {
+            if (getSize() > 0) {
+                fireContentsChanged(this, 0, getSize() - 1);
+            }
+        }
+    }
+
+    /**
+     * Paints a single post as wrapped plain text, remembering the height of each post at the current width.
+     */
+    private static class PostRenderer extends JTextArea implements ListCellRenderer<PostRecord> {
+        private final SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/YY 'at' HH:mm:ss"); // the format of the time of each post
+        private final HashMap<PostRecord, Integer> heights = new HashMap<>(); // the measured height of each post at the current width
+        private int width = 500; // the width rows are wrapped to
+        private int height; // the height of the post being painted
+
+        /**
+         * Constructor method which sets up the look of every row.
+         */
+        PostRenderer() {
+            setLineWrap(true);
+            setWrapStyleWord(true);
+            setFont(new java.awt.Font("Sans Serif", Font.PLAIN, 12));
+            setBorder(new CompoundBorder(new MatteBorder(0, 0, 1, 0, new Color(230,200,200)), new EmptyBorder(6, 6, 6, 6)));
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends PostRecord> list, PostRecord post, int index, boolean isSelected, boolean cellHasFocus) {
+            // a post waiting to be sent has no id yet
+            setText(post.body() + "\n-" + post.author() + " " + (post.id() < 0 ? "(sending...)" : sdf.format(post.time())));
+            setBackground(isSelected ? list.getSelectionBackground() : list.getBackground());
+            setForeground(isSelected ? list.getSelectionForeground() : list.getForeground());
+            Integer cached = heights.get(post);
+            if (cached == null) {
+                // wrap the text at the row width to find out how tall the row is
+                setSize(width, Short.MAX_VALUE);
+                cached = super.getPreferredSize().height;
+                heights.put(post, cached);
+            }
+            height = cached;
+            return this;
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            return new Dimension(width, height);
+        }
+
+        /**
+         * Changes the width rows are wrapped to, forgetting every measured height if it differs.
+         * @param width the new width of the list
+         * @return true if the width changed
+         */
+        boolean setWidth(int width) {
+            if (width <= 0 || width == this.width) {
+                return false;
+            }
+            this.width = width;
+            heights.clear();
+            return true;
+        }
+
+        /**
+         * Forgets the measured heights if there are more of them than the list is likely to show again.
+         * @param limit the number of heights worth keeping
+         */
+        void trim(int limit) {
+            if (heights.size() > limit) {
+                heights.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package fileforum;
+
+import java.io.*; // import used for reading and writing the log
+
+import java.nio.ByteBuffer; // import used for writing to the log
+import java.nio.MappedByteBuffer; // import used for reading the log through memory maps
+import java.nio.channels.FileChannel; // import used for writing and mapping segments
+import java.nio.charset.StandardCharsets; // import used for encoding posts
+import java.nio.file.*; // import used for finding and creating segments
+
+import java.util.ArrayList; // import used for holding segments and batches
+import java.util.Arrays; // import used for growing the record index
+import java.util.List; // import used for holding segments and batches
+import java.util.concurrent.*; // import used for group commit
+import java.util.function.Consumer; // import used for announcing committed posts
+
+/**
+ * The PostLog class stores the posts of the server in an append-only log, split into segment files of a bounded size.
+ * Each post is one line of JSON (see the PostRecord class) appended to the newest segment; nothing already written is ever rewritten, so adding a post costs the same however large the board is.
+ *
+ * ### GROUP COMMIT ###
+ * Posts are not written by the threads that receive them. They are queued, and a single writer thread takes everything queued at once, gives each post its id and time, writes the whole batch with one write and flushes it to disk with one fsync.
+ * The future of each post completes only after that fsync, so a post that was answered can never be lost, and a burst of concurrent posts costs a single disk flush.
+ *
+ * ### READING ###
+ * Readers take a Snapshot, which sees every post committed when it was taken and nothing after, without holding any lock.
+ * A snapshot reads the segments through memory maps and presents the posts newest first, the same way api/post.php lays out posts.ndjson, so byte offsets from the end of that view never change as posts are added.
+ * Listeners are told of every committed batch, in the order of their ids, right after it becomes visible to snapshots.
+ *
+ * ### COMPACTION ###
+ * Old segments can be sealed and dropped once their posts are kept elsewhere (see the Shard and PostArchive classes), so the log only holds the recent posts.
+ * The posts left are then counted from the start of the oldest segment kept, so posts.ndjson shrinks to them; snapshots taken before still read the dropped segments through their memory maps.
+ * Segments are numbered in the order they were started, and numbers are never reused, so the names of the segments left still sort in order.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class PostLog implements Closeable {
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024; // the size at which a new segment is started
+    private static final int MAX_BATCH = 1024; // the most posts written by a single commit
+    private static final String PREFIX = "posts-"; // the start of the name of every segment file
+    private static final String SUFFIX = ".log"; // the end of the name of every segment file
+
+    private final Path dir; // the directory holding the segments
+    private final ArrayList<Segment> segments = new ArrayList<>(); // every segment, oldest first, guarded by itself once the log is open
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>(); // posts waiting to be written
+    private final Thread writer; // the thread writing queued posts
+    private final CopyOnWriteArrayList<Consumer<List<PostRecord>>> listeners = new CopyOnWriteArrayList<>(); // the callbacks told of every committed batch
+
+    private long[] starts = new long[1024]; // the offset of every post in the log, oldest first
+    private int count; // the number of posts in the log
+    private long nextId = 1; // the id the next post will get
+    private int nextNumber; // the number of the next segment started
+    private volatile Snapshot snapshot; // what readers see
+    private volatile boolean closed; // true once the log no longer takes posts
+
+    /**
+     * Constructor method which opens the log in a directory, creating it if needed.
+     * Every segment is scanned to rebuild the offsets of the posts; a post cut short by a crash at the end of the log is dropped.
+     * @param dir the directory holding the segments
+     * @throws IOException an error in reading the segments
+     */
+    public PostLog(Path dir) throws IOException {
+        this(dir, 1);
+    }
+
+    /**
+     * Constructor method which opens the log in a directory, creating it if needed, giving new posts ids from at least a given one.
+     * @param dir the directory holding the segments
+     * @param firstId the lowest id a new post may get, for posts already moved out of the log
+     * @throws IOException an error in reading the segments
+     */
+    public PostLog(Path dir, long firstId) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        ArrayList<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            found.forEach(files::add);
+        }
+        files.sort(null); // segment names are zero-padded, so names sort in order
+        long base = 0;
+        for (Path file : files) {
+            Segment segment = new Segment(file, base);
+            recover(segment);
+            segments.add(segment);
+            base += segment.size;
+            String name = file.getFileName().toString();
+            nextNumber = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())) + 1;
+        }
+        if (segments.isEmpty()) {
+            segments.add(new Segment(segmentPath(nextNumber++), 0));
+        }
+        publish(System.currentTimeMillis());
+        nextId = Math.max(firstId, count > 0 ? snapshot.record(count - 1).id() + 1 : 1);
+        publish(System.currentTimeMillis());
+        writer = new Thread(this::commitLoop, "fileforum-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a post to be written; it gets its id and time when its batch is written.
+     * @param author the username of the poster
+     * @param body the text of the post
+     * @return the future of the post as written, completing once it is safely on disk
+     */
+    public CompletableFuture<PostRecord> append(String author, String body) {
+        Pending pending = new Pending(author, body);
+        // checked and queued under the lock close takes, so a post is never queued after the queue was last emptied
+        synchronized (queue) {
+            if (closed) {
+                pending.result.completeExceptionally(new IOException("Post log is closed"));
+            } else {
+                queue.add(pending);
+            }
+        }
+        return pending.result;
+    }
+
+    /**
+     * Registers a callback to be told of every batch of posts committed from now on.
+     * It is called on the writer thread, so it should only hand the posts on rather than do any work with them.
+     * @param listener called with each committed batch, oldest first
+     */
+    public void listen(Consumer<List<PostRecord>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return a view of every post committed so far
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Stops taking posts, writes what is queued and closes the segments.
+     * @throws IOException an error in closing the segments
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (queue) {
+            closed = true;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // posts queued as the writer stopped are answered rather than left waiting
+        Pending late;
+        while ((late = queue.poll()) != null) {
+            late.result.completeExceptionally(new IOException("Post log is closed"));
+        }
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Seals the newest segment and starts a new one, so every post written so far can be dropped later.
+     * Nothing happens if the newest segment is empty.
+     * @throws IOException an error in creating the segment
+     */
+    public void seal() throws IOException {
+        synchronized (segments) {
+            Segment active = segments.get(segments.size() - 1);
+            if (active.size > 0) {
+                roll(active);
+                publish(snapshot.lastModified);
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest segments from the log and deletes their files, once their posts are kept elsewhere.
+     * The newest segment is never dropped.
+     * @param dropped the number of segments to drop, as counted by a snapshot
+     * @throws IOException an error in deleting a segment file
+     */
+    public void drop(int dropped) throws IOException {
+        ArrayList<Segment> removed;
+        synchronized (segments) {
+            dropped = Math.min(dropped, segments.size() - 1);
+            if (dropped <= 0) {
+                return;
+            }
+            removed = new ArrayList<>(segments.subList(0, dropped));
+            for (Segment segment : removed) {
+                // map every old segment in full, so snapshots already taken can still read it once its file is gone
+                segment.view();
+            }
+            long origin = segments.get(dropped).base;
+            int first = lowerBound(starts, count, origin);
+            long[] kept = new long[Math.max(1024, count - first)];
+            for (int i = first; i < count; i++) {
+                kept[i - first] = starts[i] - origin;
+            }
+            starts = kept;
+            count -= first;
+            ArrayList<Segment> rebased = new ArrayList<>(segments.size() - dropped);
+            for (int s = dropped; s < segments.size(); s++) {
+                rebased.add(new Segment(segments.get(s), segments.get(s).base - origin));
+            }
+            segments.clear();
+            segments.addAll(rebased);
+            publish(snapshot.lastModified);
+        }
+        for (Segment segment : removed) {
+            segment.channel.close();
+            Files.deleteIfExists(segment.file);
+        }
+    }
+
+    /**
+     * Writes queued posts in batches until the log is closed.
+     */
+    private void commitLoop() {
+        ArrayList<Pending> batch = new ArrayList<>();
+        while (true) {
+            Pending first;
+            try {
+                // the writer is never interrupted, since that would close the segment it is writing to
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes a batch of posts with one write and one fsync, then makes them visible to readers and completes their futures.
+     * If the write fails, the segment is cut back to where it was and every post of the batch fails.
+     * @param batch the posts to write
+     */
+    private void commit(List<Pending> batch) {
+        long now = System.currentTimeMillis();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long[] offsets = new long[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            pending.record = new PostRecord(nextId + i, pending.author, now, pending.body);
+            offsets[i] = bytes.size();
+            byte[] line = (pending.record.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+            bytes.write(line, 0, line.length);
+        }
+        synchronized (segments) {
+            Segment active = segments.get(segments.size() - 1);
+            try {
+                if (active.size > 0 && active.size + bytes.size() > SEGMENT_SIZE) {
+                    active = roll(active);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                long position = active.size;
+                try {
+                    while (buffer.hasRemaining()) {
+                        position += active.channel.write(buffer, position);
+                    }
+                    active.channel.force(false);
+                } catch (IOException e) {
+                    active.channel.truncate(active.size);
+                    throw e;
+                }
+                for (long offset : offsets) {
+                    addStart(active.base + active.size + offset);
+                }
+                active.size = position;
+                nextId += batch.size();
+                publish(now);
+            } catch (IOException e) {
+                for (Pending pending : batch) {
+                    pending.result.completeExceptionally(e);
+                }
+                return;
+            }
+        }
+        ArrayList<PostRecord> committed = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            committed.add(pending.record);
+            pending.result.complete(pending.record);
+        }
+        for (Consumer<List<PostRecord>> listener : listeners) {
+            listener.accept(committed);
+        }
+    }
+
+    /**
+     * Seals the active segment and starts a new one after it.
+     * @param active the segment that is full
+     * @return the new active segment
+     * @throws IOException an error in creating the segment
+     */
+    private Segment roll(Segment active) throws IOException {
+        active.channel.force(true);
+        Segment next = new Segment(segmentPath(nextNumber++), active.base + active.size);
+        segments.add(next);
+        return next;
+    }
+
+    /**
+     * Finds the posts in a segment read from disk, cutting off a post left unfinished at its end.
+     * @param segment the segment, with its size set to the size of its file
+     * @throws IOException an error in reading the segment
+     */
+    private void recover(Segment segment) throws IOException {
+        MappedByteBuffer map = segment.view();
+        long lineStart = 0;
+        for (long i = 0; i < segment.size; i++) {
+            if (map.get((int) i) == '\n') {
+                addStart(segment.base + lineStart);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < segment.size) {
+            segment.channel.truncate(lineStart);
+            segment.size = lineStart;
+        }
+    }
+
+    /**
+     * Records the offset of a new post, growing the index if needed.
+     * The old array is left as it was, so snapshots holding it stay valid.
+     * @param start the offset of the post in the log
+     */
+    private void addStart(long start) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = start;
+    }
+
+    /**
+     * @param starts the offsets of posts, in increasing order
+     * @param count the number of offsets in use
+     * @param offset an offset in the log
+     * @return the position of the first post starting at or after the offset
+     */
+    private static int lowerBound(long[] starts, int count, long offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Makes every post written so far visible to readers.
+     * @param lastModified the time of the last write
+     */
+    private void publish(long lastModified) {
+        Segment active = segments.get(segments.size() - 1);
+        snapshot = new Snapshot(segments.toArray(new Segment[0]), starts, count, active.base + active.size, nextId - 1, lastModified);
+    }
+
+    /**
+     * @param number the number of the segment
+     * @return the path of the segment file
+     */
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("%s%08d%s", PREFIX, number, SUFFIX));
+    }
+
+    /**
+     * A view of the posts committed at one point in time, presented newest first.
+     */
+    public static class Snapshot {
+        private final Segment[] segments; // every segment, oldest first
+        private final long[] starts; // the offset of every post in the log, oldest first
+        private final int count; // the number of posts seen
+        private final long length; // the size of the log seen, in bytes
+        private final long lastId; // the id of the newest post seen, or 0 if there is none
+        private final long lastModified; // the time of the last write seen
+
+        /**
+         * Constructor method which holds the state of the log at one point in time.
+         */
+        Snapshot(Segment[] segments, long[] starts, int count, long length, long lastId, long lastModified) {
+            this.segments = segments;
+            this.starts = starts;
+            this.count = count;
+            this.length = length;
+            this.lastId = lastId;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the number of posts
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @return the size of every post together, which is the size of posts.ndjson
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @return the number of segments
+         */
+        public int segments() {
+            return segments.length;
+        }
+
+        /**
+         * @param segment the number of a segment, 0 for the oldest, or the number of segments
+         * @return the position of the first post of the segment, or the number of posts if there is no such segment
+         */
+        public int firstOf(int segment) {
+            return segment >= segments.length ? count : lowerBound(starts, count, segments[segment].base);
+        }
+
+        /**
+         * @return the id of the newest post, or 0 if there is none
+         */
+        public long lastId() {
+            return lastId;
+        }
+
+        /**
+         * @return the time of the last write, in milliseconds since the epoch
+         */
+        public long lastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Reads a single post.
+         * @param index the position of the post in the log, 0 for the oldest
+         * @return the post
+         * @throws IOException an error in reading the log
+         */
+        public PostRecord record(int index) throws IOException {
+            long start = starts[index];
+            long end = index + 1 < count ? starts[index + 1] : length;
+            byte[] line = new byte[(int) (end - start)];
+            read(start, line, 0, line.length);
+            return PostRecord.fromJson(new String(line, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Writes part of the posts, newest first, as they appear in posts.ndjson.
+         * @param out where to write the posts
+         * @param from the offset of the first byte to write, counted in posts.ndjson
+         * @param to the offset after the last byte to write, counted in posts.ndjson
+         * @throws IOException an error in reading the log or writing the posts
+         */
+        public void write(OutputStream out, long from, long to) throws IOException {
+            if (from >= to) {
+                return;
+            }
+            byte[] buffer = new byte[64 * 1024];
+            // posts.ndjson is the log with its lines in reverse order, so byte v of it falls in the line holding log byte length - v - 1
+            int index = find(length - from - 1);
+            long virtual = from;
+            while (virtual < to && index >= 0) {
+                long start = starts[index];
+                long end = index + 1 < count ? starts[index + 1] : length;
+                long lineVirtual = length - end; // where this line begins in posts.ndjson
+                long first = start + (virtual - lineVirtual);
+                long last = Math.min(end, start + (to - lineVirtual));
+                while (first < last) {
+                    int chunk = (int) Math.min(buffer.length, last - first);
+                    read(first, buffer, 0, chunk);
+                    out.write(buffer, 0, chunk);
+                    first += chunk;
+                }
+                virtual = length - start;
+                index--;
+            }
+        }
+
+        /**
+         * @param offset an offset in the log
+         * @return the position of the post holding the offset
+         */
+        private int find(long offset) {
+            int found = Arrays.binarySearch(starts, 0, count, offset);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        /**
+         * Copies bytes of the log, which may span segments.
+         * @param offset the offset of the first byte in the log
+         * @param dst where to copy the bytes
+         * @param off the index in dst of the first byte
+         * @param len the number of bytes to copy
+         * @throws IOException an error in mapping a segment
+         */
+        private void read(long offset, byte[] dst, int off, int len) throws IOException {
+            int s = segments.length - 1;
+            while (segments[s].base > offset) {
+                s--;
+            }
+            while (len > 0) {
+                Segment segment = segments[s];
+                int local = (int) (offset - segment.base);
+                int n = (int) Math.min(len, segment.end(this) - offset);
+                segment.view().get(local, dst, off, n);
+                offset += n;
+                off += n;
+                len -= n;
+                s++;
+            }
+        }
+    }
+
+    /**
+     * A single segment file of the log, read through a memory map.
+     */
+    private static class Segment {
+        private final Path file; // the path of the segment file
+        private final FileChannel channel; // the open segment file
+        private final long base; // the offset of the first byte of the segment in the log
+        private volatile long size; // the number of bytes of the segment committed
+        private MappedByteBuffer map; // the segment mapped into memory, possibly shorter than size after a write
+
+        /**
+         * Opens a segment file, creating it if needed.
+         * @param file the path of the segment file
+         * @param base the offset of the first byte of the segment in the log
+         * @throws IOException an error in opening the file
+         */
+        Segment(Path file, long base) throws IOException {
+            this.file = file;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.base = base;
+            size = channel.size();
+        }
+
+        /**
+         * Moves a segment to another place in the log, once older segments were dropped.
+         * @param segment the segment, which is no longer used
+         * @param base the new offset of the first byte of the segment in the log
+         */
+        Segment(Segment segment, long base) {
+            file = segment.file;
+            channel = segment.channel;
+            this.base = base;
+            size = segment.size;
+            synchronized (segment) {
+                map = segment.map;
+            }
+        }
+
+        /**
+         * @param snapshot the snapshot reading the segment
+         * @return the offset in the log after the last byte of the segment the snapshot sees
+         */
+        long end(Snapshot snapshot) {
+            return Math.min(base + size, snapshot.length);
+        }
+
+        /**
+         * Maps the segment, mapping it again if it has grown since the last time.
+         * @return the segment mapped into memory
+         * @throws IOException an error in mapping the file
+         */
+        synchronized MappedByteBuffer view() throws IOException {
+            if (map == null || map.capacity() < size) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * A post waiting to be written.
+     */
+    private static class Pending {
+        private final String author; // the username of the poster
+        private final String body; // the text of the post
+        private final CompletableFuture<PostRecord> result = new CompletableFuture<>(); // completes once the post is on disk
+        private PostRecord record; // the post as written, once it has its id and time
+
+        Pending(String author, String body) {
+            this.author = author;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package fileforum;
+
+import java.util.List; // import used for holding the posts of the page
+
+/**
+ * The PostPage class is one page of posts, newest first, and where the next page of older posts starts.
+ * Pages are asked for with a cursor: the id below which posts are wanted, or -1 for the newest posts.
+ * The next cursor is the id to ask for next, or -1 if there are no older posts.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class PostPage {
+    private final List<PostRecord> posts; // the posts of the page, newest first
+    private final long next; // the cursor of the next page, or -1 if there is none
+
+    /**
+     * Constructor method which holds a page of posts.
+     * @param posts the posts of the page, newest first
+     * @param next the cursor of the next page, or -1 if there is none
+     */
+    public PostPage(List<PostRecord> posts, long next) {
+        this.posts = posts;
+        this.next = next;
+    }
+
+    /**
+     * @return the posts of the page, newest first
+     */
+    public List<PostRecord> posts() {
+        return posts;
+    }
+
+    /**
+     * @return the cursor of the next page of older posts, or -1 if there are no more
+     */
+    public long next() {
+        return next;
+    }
+}
@@ -0,0 +1,278 @@
+package fileforum;
+
+import java.util.HashMap; // import used for reading every field of a line
+import java.util.Map; // import used for reading every field of a line
+
+/**
+ * The PostRecord class is a single post of the posts database: its id, the username of its author, the time it was written and its text.
+ * In the posts database each post is one line of JSON (NDJSON), newest first, for example:
+ *      {"id":42,"author":"alice","time":1552176000000,"body":"Hello\nthere"}
+ * New lines in the text are escaped, so a post can never be mistaken for the end of another one, whatever it contains.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class PostRecord {
+    private final long id; // the id of the post, increasing in the order posts were written
+    private final String author; // the username of the poster
+    private final long time; // the time the post was written, in milliseconds since the epoch
+    private final String body; // the text of the post
+
+    /**
+     * Constructor method which holds the fields of a post.
+     * @param id the id of the post
+     * @param author the username of the poster
+     * @param time the time the post was written, in milliseconds since the epoch
+     * @param body the text of the post
+     */
+    public PostRecord(long id, String author, long time, String body) {
+        this.id = id;
+        this.author = author;
+        this.time = time;
+        this.body = body;
+    }
+
+    /**
+     * @return the id of the post
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * @return the username of the poster
+     */
+    public String author() {
+        return author;
+    }
+
+    /**
+     * @return the time the post was written, in milliseconds since the epoch
+     */
+    public long time() {
+        return time;
+    }
+
+    /**
+     * @return the text of the post
+     */
+    public String body() {
+        return body;
+    }
+
+    /**
+     * Writes the post as a single line of JSON, without the new line at the end.
+     * @return the JSON representation of the post
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(body.length() + author.length() + 64);
+        json.append("{\"id\":").append(id).append(",\"author\":");
+        quote(author, json);
+        json.append(",\"time\":").append(time).append(",\"body\":");
+        quote(body, json);
+        return json.append('}').toString();
+    }
+
+    /**
+     * Reads a post from a single line of JSON.
+     * Only flat objects with string and number values are understood; fields other than id, author, time and body are ignored.
+     * @param json the JSON representation of the post
+     * @return the post
+     * @throws IllegalArgumentException if the line is not a post
+     */
+    public static PostRecord fromJson(String json) {
+        long id = -1;
+        long time = 0;
+        String author = null;
+        String body = null;
+        int[] at = {skip(json, 0)};
+        expect(json, at, '{');
+        if (peek(json, at) == '}') {
+            throw new IllegalArgumentException("Empty post record");
+        }
+        do {
+            String key = string(json, at);
+            expect(json, at, ':');
+            if (peek(json, at) == '"') {
+                String value = string(json, at);
+                if (key.equals("author")) {
+                    author = value;
+                } else if (key.equals("body")) {
+                    body = value;
+                }
+            } else {
+                long value = number(json, at);
+                if (key.equals("id")) {
+                    id = value;
+                } else if (key.equals("time")) {
+                    time = value;
+                }
+            }
+        } while (next(json, at));
+        if (id < 0 || author == null || body == null) {
+            throw new IllegalArgumentException("Post record is missing a field: " + json);
+        }
+        return new PostRecord(id, author, time, body);
+    }
+
+    /**
+     * Reads every field of a flat JSON object, for lines that carry more than a post, such as those of the outbox.
+     * @param json the JSON object
+     * @return the value of every field, as written for strings and as digits for numbers
+     * @throws IllegalArgumentException if the line is not a flat JSON object
+     */
+    public static Map<String, String> fields(String json) {
+        HashMap<String, String> fields = new HashMap<>();
+        int[] at = {skip(json, 0)};
+        expect(json, at, '{');
+        if (peek(json, at) == '}') {
+            return fields;
+        }
+        do {
+            String key = string(json, at);
+            expect(json, at, ':');
+            fields.put(key, peek(json, at) == '"' ? string(json, at) : Long.toString(number(json, at)));
+        } while (next(json, at));
+        return fields;
+    }
+
+    /**
+     * Writes a String as a quoted, escaped JSON string.
+     * @param s the String to write
+     * @return the JSON string
+     */
+    public static String quote(String s) {
+        StringBuilder json = new StringBuilder(s.length() + 2);
+        quote(s, json);
+        return json.toString();
+    }
+
+    /**
+     * Appends a String to a JSON document as a quoted, escaped string.
+     * @param s the String to write
+     * @param json the document to append to
+     */
+    private static void quote(String s, StringBuilder json) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Reads a quoted JSON string, undoing its escapes.
+     * @param json the document
+     * @param at the position of the opening quote, moved past the closing one
+     * @return the String
+     */
+    private static String string(String json, int[] at) {
+        expect(json, at, '"');
+        StringBuilder s = new StringBuilder();
+        int i = at[0];
+        while (true) {
+            if (i >= json.length()) {
+                throw new IllegalArgumentException("Unterminated string in post record");
+            }
+            char c = json.charAt(i++);
+            if (c == '"') {
+                break;
+            }
+            if (c != '\\') {
+                s.append(c);
+                continue;
+            }
+            char e = json.charAt(i++);
+            switch (e) {
+                case 'n': s.append('\n'); break;
+                case 'r': s.append('\r'); break;
+                case 't': s.append('\t'); break;
+                case 'b': s.append('\b'); break;
+                case 'f': s.append('\f'); break;
+                case 'u': s.append((char) Integer.parseInt(json.substring(i, i + 4), 16)); i += 4; break;
+                default: s.append(e); // \" \\ and \/
+            }
+        }
+        at[0] = skip(json, i);
+        return s.toString();
+    }
+
+    /**
+     * Reads a JSON number without a fraction or exponent.
+     * @param json the document
+     * @param at the position of the number, moved past it
+     * @return the number
+     */
+    private static long number(String json, int[] at) {
+        int i = at[0];
+        while (i < json.length() && (Character.isDigit(json.charAt(i)) || json.charAt(i) == '-')) {
+            i++;
+        }
+        if (i == at[0]) {
+            throw new IllegalArgumentException("Unexpected value in post record: " + json);
+        }
+        long value = Long.parseLong(json.substring(at[0], i));
+        at[0] = skip(json, i);
+        return value;
+    }
+
+    /**
+     * Moves past the comma between two fields, or the brace closing the object.
+     * @param json the document
+     * @param at the current position, moved past the comma or brace
+     * @return true if another field follows
+     */
+    private static boolean next(String json, int[] at) {
+        char c = peek(json, at);
+        expect(json, at, c == ',' ? ',' : '}');
+        return c == ',';
+    }
+
+    /**
+     * Moves past the expected character, which must be next.
+     * @param json the document
+     * @param at the current position, moved past the character
+     * @param c the expected character
+     */
+    private static void expect(String json, int[] at, char c) {
+        if (peek(json, at) != c) {
+            throw new IllegalArgumentException("Expected '" + c + "' in post record: " + json);
+        }
+        at[0] = skip(json, at[0] + 1);
+    }
+
+    /**
+     * @param json the document
+     * @param at the current position
+     * @return the character at the current position, or 0 at the end of the document
+     */
+    private static char peek(String json, int[] at) {
+        return at[0] < json.length() ? json.charAt(at[0]) : 0;
+    }
+
+    /**
+     * @param json the document
+     * @param i a position in the document
+     * @return the first position at or after i that is not whitespace
+     */
+    private static int skip(String json, int i) {
+        while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,254 @@
+package fileforum;
+
+import java.nio.charset.StandardCharsets; // import used for encoding and decoding the text of posts
+
+import java.util.AbstractList; // import used for handing out posts without decoding them all
+import java.util.Arrays; // import used for growing the columns
+import java.util.HashMap; // import used for the dictionary of usernames
+import java.util.List; // import used for returning posts
+import java.util.RandomAccess; // import used for marking the views as cheap to index
+
+/**
+ * The PostStore class holds many posts in memory in about the space of their text, instead of as one object per post.
+ * Posts are stored by column, in the order they are added, and a post is only made into a PostRecord when it is asked for.
+ *
+ * ### COLUMNS ###
+ * The text of every post is encoded as UTF-8 into large shared byte arrays (chunks of a megabyte; a longer post gets a chunk of its own), found by the chunk, start and length of the post, each an int.
+ * Usernames are kept once each in a dictionary, and every post holds only the number of its author in it.
+ * Ids and times are kept as longs.
+ * A post therefore costs 32 bytes and its text, where a PostRecord costs about 100 bytes more, with a String for its text and another for its author.
+ *
+ * ### VIEWS ###
+ * view and newestFirst hand out lists of posts that decode a post each time it is read, so only the posts that are actually looked at, such as the rows on screen, are ever turned back into Strings.
+ * Posts are only ever added after the last one, into space no earlier post uses, and clear starts new columns rather than wiping the old ones, so a view stays valid however the store changes after it was made.
+ * A view may be read by any thread once it has been handed over, but the store itself is not thread safe; the FeedIndex class guards it with its own lock.
+ * Plain text searches look for the UTF-8 bytes of the query in the text of each post, without decoding it.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class PostStore {
+    private static final int CHUNK = 1 << 20; // the size of the byte arrays the text of posts is packed into
+    private static final int COLUMN = 1024; // the number of posts the columns start with room for
+
+    private byte[][] chunks; // the text of every post, packed one after the other
+    private int chunkCount; // the number of chunks in use
+    private int used; // the number of bytes used in the last chunk
+    private long[] ids; // the id of every post
+    private long[] times; // the time of every post, in milliseconds since the epoch
+    private int[] authors; // the number of the author of every post in the dictionary
+    private int[] chunkOf; // the chunk holding the text of every post
+    private int[] starts; // the index in its chunk of the first byte of the text of every post
+    private int[] lengths; // the length in bytes of the text of every post
+    private int size; // the number of posts
+    private long bytes; // the number of bytes of text of every post
+
+    private String[] names; // the username of every author, by number
+    private int nameCount; // the number of authors
+    private HashMap<String, Integer> numbers; // the number of every author, by username
+
+    /**
+     * Constructor method which sets up an empty store.
+     */
+    public PostStore() {
+        clear();
+    }
+
+    /**
+     * Forgets every post, starting new columns so views of the old posts keep working.
+     */
+    public void clear() {
+        chunks = new byte[4][];
+        chunkCount = 0;
+        used = CHUNK;
+        ids = new long[COLUMN];
+        times = new long[COLUMN];
+        authors = new int[COLUMN];
+        chunkOf = new int[COLUMN];
+        starts = new int[COLUMN];
+        lengths = new int[COLUMN];
+        size = 0;
+        bytes = 0;
+        names = new String[64];
+        nameCount = 0;
+        numbers = new HashMap<>();
+    }
+
+    /**
+     * Adds a post after every post in the store.
+     * @param post the post
+     */
+    public void add(PostRecord post) {
+        if (size == ids.length) {
+            int grown = size * 2;
+            ids = Arrays.copyOf(ids, grown);
+            times = Arrays.copyOf(times, grown);
+            authors = Arrays.copyOf(authors, grown);
+            chunkOf = Arrays.copyOf(chunkOf, grown);
+            starts = Arrays.copyOf(starts, grown);
+            lengths = Arrays.copyOf(lengths, grown);
+        }
+        byte[] text = post.body().getBytes(StandardCharsets.UTF_8);
+        if (text.length > CHUNK - used) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            chunks[chunkCount++] = new byte[Math.max(CHUNK, text.length)];
+            used = 0;
+        }
+        System.arraycopy(text, 0, chunks[chunkCount - 1], used, text.length);
+        ids[size] = post.id();
+        times[size] = post.time();
+        authors[size] = number(post.author());
+        chunkOf[size] = chunkCount - 1;
+        starts[size] = used;
+        lengths[size] = text.length;
+        used += text.length;
+        bytes += text.length;
+        size++;
+    }
+
+    /**
+     * @return the number of posts
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes of text of every post, as UTF-8
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @param i the position of a post, in the order posts were added
+     * @return the id of the post
+     */
+    public long id(int i) {
+        return ids[i];
+    }
+
+    /**
+     * @param i the position of a post, in the order posts were added
+     * @return the post, with its text decoded
+     */
+    public PostRecord get(int i) {
+        return new PostRecord(ids[i], names[authors[i]], times[i], new String(chunks[chunkOf[i]], starts[i], lengths[i], StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks a post for a plain text search.
+     * @param i the position of a post, in the order posts were added
+     * @param query the text searched for
+     * @param encoded the same text as UTF-8
+     * @return true if the text or the username of the post holds the query
+     */
+    public boolean contains(int i, String query, byte[] encoded) {
+        if (names[authors[i]].contains(query)) {
+            return true;
+        }
+        byte[] chunk = chunks[chunkOf[i]];
+        int last = starts[i] + lengths[i] - encoded.length;
+        for (int at = starts[i]; at <= last; at++) {
+            int matched = 0;
+            while (matched < encoded.length && chunk[at + matched] == encoded[matched]) {
+                matched++;
+            }
+            if (matched == encoded.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param end the position after the newest post wanted
+     * @return the posts before that position, newest first, decoded as they are read
+     */
+    public List<PostRecord> newestFirst(int end) {
+        Columns columns = new Columns();
+        return new View() {
+            @Override
+            public PostRecord get(int index) {
+                return columns.get(end - 1 - index);
+            }
+
+            @Override
+            public int size() {
+                return end;
+            }
+        };
+    }
+
+    /**
+     * @param positions the positions of the posts wanted, in the order wanted; kept by the view, not copied
+     * @param count the number of positions in use
+     * @return the posts at those positions, decoded as they are read
+     */
+    public List<PostRecord> view(int[] positions, int count) {
+        Columns columns = new Columns();
+        return new View() {
+            @Override
+            public PostRecord get(int index) {
+                if (index >= count) {
+                    throw new IndexOutOfBoundsException(index);
+                }
+                return columns.get(positions[index]);
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Finds the number of an author in the dictionary, adding them if they are new.
+     * @param author the username of the author
+     * @return the number of the author
+     */
+    private int number(String author) {
+        Integer number = numbers.get(author);
+        if (number != null) {
+            return number;
+        }
+        if (nameCount == names.length) {
+            names = Arrays.copyOf(names, nameCount * 2);
+        }
+        names[nameCount] = author;
+        numbers.put(author, nameCount);
+        return nameCount++;
+    }
+
+    /**
+     * A list of posts that is cheap to index and decodes a post only when it is read.
+     */
+    private abstract static class View extends AbstractList<PostRecord> implements RandomAccess {
+    }
+
+    /**
+     * The columns as they were when a view was made; the posts they hold never change afterwards.
+     */
+    private class Columns {
+        private final byte[][] chunks = PostStore.this.chunks; // the text of the posts
+        private final long[] ids = PostStore.this.ids; // the id of every post
+        private final long[] times = PostStore.this.times; // the time of every post
+        private final int[] authors = PostStore.this.authors; // the number of the author of every post
+        private final int[] chunkOf = PostStore.this.chunkOf; // the chunk holding the text of every post
+        private final int[] starts = PostStore.this.starts; // the start of the text of every post
+        private final int[] lengths = PostStore.this.lengths; // the length of the text of every post
+        private final String[] names = PostStore.this.names; // the username of every author
+
+        /**
+         * @param i the position of a post
+         * @return the post, with its text decoded
+         */
+        PostRecord get(int i) {
+            return new PostRecord(ids[i], names[authors[i]], times[i], new String(chunks[chunkOf[i]], starts[i], lengths[i], StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package fileforum;
+
+import javax.swing.*; // import used for GUI
+import javax.swing.border.*; // import used for borders
+import java.awt.*; // import used for GUI
+import java.awt.event.*; // import used for event handling
+
+
+import java.util.concurrent.CompletableFuture; // import used for waiting on requests without blocking the GUI
+import java.util.concurrent.atomic.AtomicBoolean; // import used for noticing pushed posts from the background
+import java.util.concurrent.Executor; // import used for publishing results back to the GUI
+
+/**
+ * The Screen class is responsible for nearly every function of the program except the login.
+ * The Screen class instantiates a GUI with labels, boxes, and buttons.
+ * Users, once their login is accepted by the Driver class, can enter into the text field box to search or post.
+ * Users can also refresh to obtain the most recent posts.
+ * Additionally, users may log out and head back to the beginning prompt, or they may directly exit from the program.
+ * The Screen class utilizes GET and POST requests to a remote server for functionality. If the client cannot connect to the server, it will notify the user of the issue.
+ * Requests are sent through the ForumClient class in the background; their results are published back to the Swing event thread, so the GUI stays responsive while they are in flight.
+ * Posts are asked for a page at a time: Refresh and Search show the newest page, and scrolling towards the bottom of the list asks for the next page of older posts.
+ * Posts are split into boards, chosen with the board selector; every refresh, search, post and pushed update is for the board selected. A board name that does not exist yet may be typed in, and the first post creates it.
+ * Posting is instant: a post is written to the outbox and shown as being sent until the server has it (see the ForumClient class), so a slow or unreachable server never loses it.
+ * New posts are pushed by the server while the Screen is open. However many arrive, the list is brought up to date at most once a frame, by asking for the newest page of the refresh or search being shown.
+ * Ctrl+Shift+D opens a hidden diagnostics panel with the live timings of every request and of showing the posts (see the DiagnosticsPanel class).
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class Screen extends JPanel {
+    private JLabel titleLabel; //the title text
+    private JLabel userLabel; //the username text
+
+    private JTextField box; //the multi-function text field box
+
+    private JButton searchButton; //the search button
+    private JButton postButton; //the post button
+    private JButton refreshButton; //the refresh button
+    private JButton logoutButton; //the logout button
+    private JButton quitButton; //the logout button
+    private JComboBox<String> boardBox; //the board selector
+
+    private PostList postsList; //the list of posts
+
+    private static final Executor EDT = SwingUtilities::invokeLater; //runs callbacks on the Swing event thread
+    private static final int FRAME = 16; //the number of milliseconds between updates for pushed posts
+
+    private final ForumClient root; //the client of the general board, which finds the clients of the other boards
+    private ForumClient client; //the client of the board being shown, which sends every request for it
+    private final String FORUM_NAME; // the name of the forums
+
+    private String username; //the username of the user logged in
+
+    private CompletableFuture<Void> shown; //the refresh or search whose result will be displayed next
+    private int generation; //the number of refreshes and searches started, so early results of replaced ones can be dropped
+    private String query = ""; //the search being shown, or "" if every post is
+    private long cursor = -1; //the cursor of the next page of older posts, or -1 if there are none
+    private boolean loading; //true while a page of older posts is being asked for
+
+    private FeedStream live; //the posts pushed by the server to the board being shown
+    private final AtomicBoolean arrived = new AtomicBoolean(); //true if posts were pushed since the list was last brought up to date
+    private final Timer frame = new Timer(FRAME, new FrameListener()); //brings the list up to date with pushed posts
+
+    /**
+     * Constructor method which initiates the GUI and also sets the username in preparation for a POST request.
+     * @param username the username of the user logged in
+     * @param client the client that sends every request to the server
+     * @param forumName the name of the forums
+     */
+    public Screen(String username, ForumClient client, String forumName) {
+        this.root = client;
+        this.client = client;
+        FORUM_NAME = forumName;
+        setLayout(new FlowLayout());
+
+        //header - title and user
+        JPanel header = new JPanel();
+        header.setLayout(new BorderLayout());
+        titleLabel = new JLabel(FORUM_NAME);
+        titleLabel.setFont(new java.awt.Font("Serif", Font.BOLD | Font.ITALIC, 24));
+        titleLabel.setForeground(new Color(175,35,35));
+        header.add(titleLabel, BorderLayout.NORTH);
+        userLabel = new JLabel("Currently logged in: " + username);
+        userLabel.setFont(new java.awt.Font("Sans Serif", 1, 10));
+        userLabel.setForeground(new Color(175,35,35));
+        header.add(userLabel, BorderLayout.SOUTH);
+        add(header);
+
+        //board selector, filled in once the server lists its boards
+        boardBox = new JComboBox<>(new String[] {client.boardName()});
+        boardBox.setEditable(true);
+        boardBox.addActionListener(new BoardListener());
+        add(boardBox);
+        client.boards().thenAcceptAsync(names -> {
+            for (String name : names) {
+                if (((DefaultComboBoxModel<String>) boardBox.getModel()).getIndexOf(name) < 0) {
+                    boardBox.addItem(name);
+                }
+            }
+        }, EDT); // without the list, boards can still be typed in
+
+        //multi-function textbox
+        JPanel textbox = new JPanel();
+        textbox.setLayout(new FlowLayout());
+        box = new JTextField("", 50);
+        box.setHorizontalAlignment(JTextField.LEFT);
+        textbox.add(box);
+        add(textbox);
+
+        //buttons - search, post, refresh, logout, quit
+        JPanel buttons = new JPanel();
+        buttons.setLayout(new FlowLayout());
+        searchButton = new JButton("Search");
+        searchButton.addActionListener(new SearchListener());
+        buttons.add(searchButton);
+        postButton = new JButton("Post");
+        postButton.addActionListener(new PostListener());
+        buttons.add(postButton);
+        refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(new RefreshListener());
+        buttons.add(refreshButton);
+        add(buttons);
+        logoutButton = new JButton("Logout");
+        logoutButton.addActionListener(new LogOutListener());
+        buttons.add(logoutButton);
+        add(buttons);
+        quitButton = new JButton("Quit");
+        quitButton.addActionListener(new QuitListener());
+        buttons.add(quitButton);
+        add(buttons);
+
+        //posts display setup
+        JPanel postsBox = new JPanel();
+        postsBox.setBorder(new TitledBorder(new EtchedBorder(), "Recent Posts"));
+        postsBox.setBackground(new Color(255,240,240));
+        postsList = new PostList();
+        postsList.setNearEnd(this::loadOlder);
+        postsList.setPreferredSize(new Dimension(540, 600));
+        postsBox.add(postsList);
+        add(postsBox);
+
+        //set the username
+        this.username = username;
+
+        //force button press to get new content, showing the posts cached on disk first
+        refreshButton.doClick();
+
+        //hidden diagnostics panel
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "diagnostics");
+        getActionMap().put("diagnostics", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                DiagnosticsPanel.open(Screen.this);
+            }
+        });
+
+        //show new posts as the server pushes them, and as the outbox sends them
+        frame.setRepeats(false);
+        follow();
+        root.setOnOutbox(() -> EDT.execute(this::outboxSent));
+    }
+
+    /**
+     * Listens for a board picked or typed into boardBox and switches every request to it, showing its newest posts.
+     * If the name is not one boards may have, it will notify the user and stay on the board being shown.
+     */
+    private class BoardListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            Object picked = boardBox.getSelectedItem();
+            String name = picked == null ? "" : picked.toString().trim().toLowerCase();
+            if (name.equals(client.boardName())) {
+                return;
+            }
+            ForumClient board;
+            try {
+                board = root.board(name);
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(null, "Board names may only use letters, digits, '-' and '_'.", "Board Error", JOptionPane.OK_OPTION);
+                boardBox.setSelectedItem(client.boardName());
+                return;
+            }
+            live.close();
+            frame.stop();
+            client = board;
+            refreshButton.doClick();
+            follow();
+        }
+    }
+
+    /**
+     * Listens for an event from searchButton and acts upon it by filtering out posts for specific phrases.
+     * The server searches its index and sends the newest page of matches; servers that cannot search are searched through the index of the posts already fetched.
+     * Displays the matching posts in the list of posts.
+     * If there is an error in the retrieval of data, it will notify the user to try again later.
+     */
+    private class SearchListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            query = box.getText();
+            show(client.page(query, -1));
+        }
+    }
+
+    /**
+     * Listens for an event from postButton and acts upon it by writing the post to the outbox, to be sent for the server to append to the posts database.
+     * If there is no text in the box, this will take no action.
+     * Clears any text in the text box and shows the post as being sent once it is in the outbox.
+     * If the post cannot be written to the outbox, it will notify the user and leave the text in the box.
+     */
+    private class PostListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (!box.getText().isEmpty()) {
+                // do not let the same post be written twice while the first one is being saved
+                postButton.setEnabled(false);
+                client.queuePost(username, box.getText()).whenCompleteAsync((ignored, f) -> {
+                    postButton.setEnabled(true);
+                    if (f != null) {
+                        JOptionPane.showMessageDialog(null, "Could not save post. Try again.", "Post Error", JOptionPane.OK_OPTION);
+                        return;
+                    }
+                    postsList.setPending(client.pending());
+                    // clear the box after post is saved
+                    box.setText("");
+                }, EDT);
+            }
+        }
+    }
+
+    /**
+     * Listens for an event from refreshButton and acts upon it by refreshing the list of posts with recent posts from the posts database.
+     * Clears any text in the text box.
+     * If there is an error in the retrieval of data, it will notify the user to try again later.
+     */
+    private class RefreshListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            // show the cached posts, or the first page of a full download, without waiting for the rest
+            query = "";
+            int expected = generation + 1;
+            show(client.latest(page -> EDT.execute(() -> {
+                if (generation == expected) {
+                    postsList.setPosts(page);
+                }
+            })));
+            // clear anything in the textbox
+            box.setText("");
+        }
+
+    }
+
+    /**
+     * Listens for an event from logoutButton and acts upon it by logging the user out and redirecting them to the beginning prompt.
+     */
+    private class LogOutListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            live.close();
+            frame.stop();
+            Driver.reboot();
+        }
+    }
+
+    /**
+     * Listens for an event from quitButton and acts upon it by closing the program entirely.
+     */
+    private class QuitListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Listens for the frame timer after posts were pushed and brings the list up to date with them.
+     * If a refresh or search is still waiting to be displayed, it is left to finish and the update waits for the next frame.
+     */
+    private class FrameListener implements ActionListener {
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (shown != null && !shown.isDone()) {
+                frame.restart();
+                return;
+            }
+            arrived.set(false);
+            int expected = generation;
+            client.page(query, -1).thenAcceptAsync(page -> {
+                if (generation != expected) {
+                    return;
+                }
+                if (!postsList.addNewer(page.posts())) {
+                    postsList.setPosts(page.posts());
+                    cursor = page.next();
+                }
+                postsList.setPending(client.pending());
+            }, EDT); // a failed update is simply left for the next push or refresh
+        }
+    }
+
+    /**
+     * Brings the list up to date after posts left the outbox, replacing them with the posts the server wrote.
+     * If the server refused the session of the user, it will notify them and send them back to log in; their posts stay in the outbox until they do.
+     */
+    private void outboxSent() {
+        if (client.sessionEnded()) {
+            if (logoutButton.isShowing()) {
+                JOptionPane.showMessageDialog(null, "Your session has expired. Log in again to send your posts.", "Session Expired", JOptionPane.OK_OPTION);
+                logoutButton.doClick();
+            }
+            return;
+        }
+        if (!arrived.getAndSet(true)) {
+            frame.restart();
+        }
+    }
+
+    /**
+     * Opens the stream of posts pushed to the board being shown, bringing the list up to date at most once a frame.
+     */
+    private void follow() {
+        arrived.set(false);
+        live = client.listen(() -> {
+            if (!arrived.getAndSet(true)) {
+                EDT.execute(frame::restart);
+            }
+        });
+    }
+
+    /**
+     * Asks for the next page of older posts once the user has scrolled to the end of the list, unless there are none or the list is about to be replaced.
+     */
+    private void loadOlder() {
+        if (cursor < 0 || loading || (shown != null && !shown.isDone())) {
+            return;
+        }
+        loading = true;
+        int expected = generation;
+        client.page(query, cursor).whenCompleteAsync((page, f) -> {
+            loading = false;
+            if (f == null && generation == expected) {
+                postsList.addOlder(page.posts());
+                cursor = page.next();
+            }
+        }, EDT);
+    }
+
+    /**
+     * Displays posts in the list once they arrive, replacing whatever refresh or search was waiting to be displayed.
+     * The replaced one is cancelled so a slow, older result never overwrites a newer one.
+     * If there is an error in the retrieval of data, it will notify the user to try again later.
+     * @param page the future of the newest page of posts to display
+     */
+    private void show(CompletableFuture<PostPage> page) {
+        if (shown != null) {
+            shown.cancel(false);
+        }
+        generation++;
+        cursor = -1;
+        CompletableFuture<Void> display = page.thenAcceptAsync(shownPage -> {
+            postsList.setPosts(shownPage.posts());
+            postsList.setPending(client.pending());
+            cursor = shownPage.next();
+        }, EDT);
+        display.whenCompleteAsync((ignored, f) -> {
+            if (f != null && !display.isCancelled()) {
+                JOptionPane.showMessageDialog(null, "Error in retrieving data. Try again later.", "Server Error", JOptionPane.OK_OPTION);
+            }
+        }, EDT);
+        shown = display;
+    }
+}
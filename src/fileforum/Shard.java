@@ -0,0 +1,453 @@
+package fileforum;
+
+import java.io.*; // import used for opening and closing the shard
+
+import java.nio.charset.StandardCharsets; // import used for encoding the idempotency keys
+import java.nio.file.*; // import used for locating the shard and its idempotency keys
+
+import java.util.ArrayList; // import used for loading the index a batch at a time
+import java.util.Arrays; // import used for sorting the tombstones
+import java.util.HashSet; // import used for the keys of a batch that are new
+import java.util.LinkedHashMap; // import used for remembering the most recent idempotency keys
+import java.util.List; // import used for posting batches
+import java.util.Map; // import used for remembering the most recent idempotency keys
+import java.util.Set; // import used for the tombstones
+import java.util.concurrent.*; // import used for the indexing thread and waiting on commits
+
+/**
+ * The Shard class is the storage of a single board on the server: its own post log, search index and subscriptions to new posts.
+ * Nothing is shared between shards, so a busy board never holds up reads or writes of a quiet one, and each shard can be served, copied or compacted on its own.
+ * A shard is opened the first time its board is used, which reads its log and builds its index.
+ *
+ * ### IDEMPOTENCY ###
+ * Posts sent in batches carry a key chosen by the client (see the Outbox class). The shard remembers the id of the post written for each of the most recent keys, in memory and in keys.txt, one "key id" line each.
+ * A key it has seen is answered with the post already written instead of a new one, even while that post is still being committed, so a client retrying a batch never posts twice.
+ * keys.txt is written after the posts are committed; a crash between the two forgets the keys of that one batch.
+ *
+ * ### COMPACTION ###
+ * The log only keeps the recent posts, the hot ones; compact moves whole segments of older posts into the PostArchive of the board, in archive/, and drops them from the log.
+ * The search index only holds the posts of the log, and is built again after every compaction, so it stays as small as the hot posts.
+ * Pages and searches are answered from the log and the index, and only go on into the archive once they run past the oldest hot post.
+ * posts.ndjson is the log, so it only holds the hot posts too; older posts are reached a page at a time.
+ *
+ * ### TOMBSTONES ###
+ * A deleted post is not removed at once: its id is appended to tombstones.txt, and pages, searches and finding the post skip it from then on.
+ * Compaction leaves tombstoned posts out of the archive and writes archive parts holding them again without them, then forgets their tombstones.
+ * Until its segment is compacted, a deleted post is still in posts.ndjson, since the log is never rewritten, and the ETag of posts.ndjson does not change with a delete.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class Shard implements Closeable {
+    private final PostLog posts; // the posts of the board still in the log
+    private final PostArchive archive; // the older posts of the board
+    private final PostEvents events; // the subscriptions to new posts of the board
+    private volatile FeedIndex index; // the search index of every post in the log
+    private static final int KEYS = 100000; // the number of idempotency keys remembered
+    private static final int LOAD_BATCH = 10000; // the number of posts of the log indexed at a time when the index is built
+
+    private final ExecutorService indexer; // the thread adding new posts to the search index
+    private final Path keyFile; // the file the idempotency keys are appended to
+    private final Path tombstoneFile; // the file the ids of deleted posts are appended to
+    private final Set<Long> deleted = ConcurrentHashMap.newKeySet(); // the ids of deleted posts that may still be stored
+    private final Map<String, CompletableFuture<Long>> keys = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Long>> eldest) {
+            return size() > KEYS;
+        }
+    }; // the id of the post written for each of the most recent idempotency keys, guarded by itself
+
+    /**
+     * Constructor method which opens the log and archive of a board, creating them if needed, and indexes the posts of the log.
+     * @param dir the directory holding the log of the board
+     * @param name the name of the board, used to name its threads
+     * @throws IOException an error in reading the log or the archive
+     */
+    public Shard(Path dir, String name) throws IOException {
+        archive = new PostArchive(dir.resolve("archive"));
+        posts = new PostLog(dir, archive.through() + 1);
+        // segments archived just before the server stopped may not have been dropped yet
+        PostLog.Snapshot snapshot = posts.snapshot();
+        int archived = 0;
+        while (archived < snapshot.segments() - 1) {
+            int end = snapshot.firstOf(archived + 1);
+            if (end > 0 && snapshot.record(end - 1).id() > archive.through()) {
+                break;
+            }
+            archived++;
+        }
+        posts.drop(archived);
+        events = new PostEvents(posts);
+        index = index(posts.snapshot());
+        indexer = Executors.newSingleThreadExecutor(r -> new Thread(r, "fileforum-indexer-" + name));
+        posts.listen(committed -> indexer.execute(() -> {
+            // an index built again after a compaction may already hold some of the batch
+            FeedIndex current = index;
+            long newest = current.newestId();
+            ArrayList<PostRecord> added = new ArrayList<>(committed.size());
+            for (PostRecord post : committed) {
+                if (post.id() > newest) {
+                    added.add(post);
+                }
+            }
+            current.append(added);
+        }));
+        tombstoneFile = dir.resolve("tombstones.txt");
+        if (Files.exists(tombstoneFile)) {
+            for (String line : Files.readAllLines(tombstoneFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    deleted.add(Long.parseLong(line.trim()));
+                }
+            }
+        }
+        keyFile = dir.resolve("keys.txt");
+        if (Files.exists(keyFile)) {
+            List<String> lines = Files.readAllLines(keyFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    keys.put(line.substring(0, space), CompletableFuture.completedFuture(Long.parseLong(line.substring(space + 1))));
+                }
+            }
+            if (lines.size() > KEYS * 2) {
+                // drop the keys that are no longer remembered
+                ArrayList<String> kept = new ArrayList<>(keys.size());
+                keys.forEach((key, id) -> kept.add(key + " " + id.join()));
+                Path temp = dir.resolve("keys.tmp");
+                Files.write(temp, kept, StandardCharsets.UTF_8);
+                Files.move(temp, keyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Adds a batch of posts by one user, skipping any whose key was seen before, and waits until every one is committed.
+     * @param author the username of the poster
+     * @param postKeys the idempotency key of each post
+     * @param bodies the text of each post
+     * @return the id of each post, whether it was written now or before
+     * @throws IOException an error in committing a post or remembering the keys
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public List<Long> post(String author, List<String> postKeys, List<String> bodies) throws IOException, InterruptedException {
+        ArrayList<CompletableFuture<Long>> ids = new ArrayList<>(postKeys.size());
+        HashSet<String> added = new HashSet<>();
+        for (int i = 0; i < postKeys.size(); i++) {
+            CompletableFuture<Long> id = new CompletableFuture<>();
+            CompletableFuture<Long> seen;
+            synchronized (keys) {
+                seen = keys.putIfAbsent(postKeys.get(i), id);
+            }
+            if (seen != null) {
+                ids.add(seen);
+                continue;
+            }
+            String key = postKeys.get(i);
+            posts.append(author, bodies.get(i)).whenComplete((record, failed) -> {
+                if (failed != null) {
+                    // forget the key, so the post can be sent again
+                    synchronized (keys) {
+                        keys.remove(key, id);
+                    }
+                    id.completeExceptionally(failed);
+                } else {
+                    id.complete(record.id());
+                }
+            });
+            ids.add(id);
+            added.add(key);
+        }
+        ArrayList<Long> answered = new ArrayList<>(ids.size());
+        try {
+            for (CompletableFuture<Long> id : ids) {
+                answered.add(id.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Post was not committed", e.getCause());
+        }
+        if (!added.isEmpty()) {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < postKeys.size(); i++) {
+                if (added.contains(postKeys.get(i))) {
+                    lines.append(postKeys.get(i)).append(' ').append(answered.get(i)).append('\n');
+                }
+            }
+            synchronized (keyFile) {
+                Files.write(keyFile, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        }
+        return answered;
+    }
+
+    /**
+     * Finds a page of posts, newest first, from the log and then, once past its oldest post, from the archive.
+     * @param before the id below which posts are wanted, or -1 for the newest posts
+     * @param limit the most posts to return
+     * @return the posts, and the cursor of the next page
+     * @throws IOException an error in reading the log or the archive
+     */
+    public PostPage page(long before, int limit) throws IOException {
+        PostLog.Snapshot snapshot = posts.snapshot();
+        // find the first post at or after the cursor; ids grow with the order of the log
+        int end = snapshot.count();
+        if (before >= 0) {
+            int low = 0;
+            while (low < end) {
+                int mid = (low + end) >>> 1;
+                if (snapshot.record(mid).id() < before) {
+                    low = mid + 1;
+                } else {
+                    end = mid;
+                }
+            }
+        }
+        ArrayList<PostRecord> found = new ArrayList<>();
+        int i = end - 1;
+        for (; i >= 0 && found.size() < limit; i--) {
+            PostRecord record = snapshot.record(i);
+            if (!deleted.contains(record.id())) {
+                found.add(record);
+            }
+        }
+        if (found.size() == limit) {
+            return new PostPage(found, i >= 0 || archive.through() > 0 ? found.get(limit - 1).id() : -1);
+        }
+        return archived("", before, snapshot.count() > 0 ? snapshot.record(0).id() : -1, found, limit);
+    }
+
+    /**
+     * Finds a page of the posts matching a search, newest first, from the index and then, once past its oldest post, from the archive.
+     * @param query the text searched for
+     * @param before the id below which posts are wanted, or -1 for the newest posts
+     * @param limit the most posts to return
+     * @return the posts, and the cursor of the next page
+     * @throws IOException an error in reading the archive
+     */
+    public PostPage search(String query, long before, int limit) throws IOException {
+        FeedIndex hot = index;
+        long oldest = hot.oldestId();
+        ArrayList<PostRecord> found = new ArrayList<>();
+        if (oldest >= 0 && (before < 0 || before > oldest)) {
+            PostPage page = hot.search(query, before, limit);
+            for (PostRecord post : page.posts()) {
+                if (!deleted.contains(post.id())) {
+                    found.add(post);
+                }
+            }
+            if (page.next() >= 0 || found.size() == limit) {
+                return new PostPage(found, page.next() >= 0 ? page.next() : found.get(limit - 1).id());
+            }
+        }
+        return archived(query, before, oldest, found, limit);
+    }
+
+    /**
+     * Finishes a page with archived posts, once the log or the index has no older ones.
+     * @param query the text searched for, or "" for every post
+     * @param before the id below which posts are wanted, or -1 for the newest posts
+     * @param oldest the id of the oldest post that was looked at outside the archive, or -1 if there was none
+     * @param found the posts found so far, which the archived ones are added to
+     * @param limit the most posts in the page
+     * @return the page, and the cursor of the next one
+     * @throws IOException an error in reading the archive
+     */
+    private PostPage archived(String query, long before, long oldest, ArrayList<PostRecord> found, int limit) throws IOException {
+        long below = oldest < 0 ? before : before < 0 ? oldest : Math.min(before, oldest);
+        PostPage older = archive.page(query, below, limit - found.size(), deleted::contains);
+        found.addAll(older.posts());
+        return new PostPage(found, older.next());
+    }
+
+    /**
+     * Finds a single post, in the log or in the archive.
+     * @param id the id of the post
+     * @return the post, or null if there is none or it was deleted
+     * @throws IOException an error in reading the log or the archive
+     */
+    public PostRecord find(long id) throws IOException {
+        if (deleted.contains(id)) {
+            return null;
+        }
+        PostLog.Snapshot snapshot = posts.snapshot();
+        if (snapshot.count() == 0 || id < snapshot.record(0).id()) {
+            return archive.find(id);
+        }
+        int low = 0;
+        int high = snapshot.count() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            PostRecord record = snapshot.record(mid);
+            if (record.id() == id) {
+                return record;
+            }
+            if (record.id() < id) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes a post by giving it a tombstone.
+     * @param id the id of the post
+     * @throws IOException an error in writing the tombstone
+     */
+    public void delete(long id) throws IOException {
+        synchronized (tombstoneFile) {
+            Files.write(tombstoneFile, (id + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            deleted.add(id);
+        }
+    }
+
+    /**
+     * Moves the posts older than the hot window from the log into the archive, and applies retention and tombstones to the archive.
+     * Only whole segments are moved, once their newest post is old enough; a newest segment whose oldest post is old enough is sealed, so it can be moved later.
+     * Only one compaction of a shard may run at a time.
+     * @param hot the time of the oldest post kept in the log, in milliseconds since the epoch
+     * @param oldest the time of the oldest post kept at all, or Long.MIN_VALUE to keep posts forever
+     * @throws IOException an error in reading the log or writing the archive
+     */
+    public void compact(long hot, long oldest) throws IOException {
+        long[] gone;
+        synchronized (tombstoneFile) {
+            gone = deleted.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        PostLog.Snapshot snapshot = posts.snapshot();
+        int newest = snapshot.firstOf(snapshot.segments() - 1);
+        if (newest < snapshot.count() && snapshot.record(newest).time() < hot) {
+            posts.seal();
+            snapshot = posts.snapshot();
+        }
+        int moved = 0;
+        while (moved < snapshot.segments() - 1) {
+            int end = snapshot.firstOf(moved + 1);
+            if (end > snapshot.firstOf(moved) && snapshot.record(end - 1).time() >= hot) {
+                break;
+            }
+            moved++;
+        }
+        int end = snapshot.firstOf(moved);
+        if (end > 0) {
+            try (PostArchive.Writer writer = archive.writer()) {
+                for (int i = 0; i < end; i++) {
+                    PostRecord record = snapshot.record(i);
+                    if (record.time() >= oldest && Arrays.binarySearch(gone, record.id()) < 0) {
+                        writer.add(record);
+                    }
+                }
+                writer.commit();
+            }
+            archive.archived(snapshot.record(end - 1).id());
+        }
+        if (moved > 0) {
+            posts.drop(moved);
+            reindex();
+        }
+        archive.prune(oldest, gone);
+        // every tombstone of a post that has left the log has now been applied, so it can be forgotten
+        long through = archive.through();
+        synchronized (tombstoneFile) {
+            boolean forgot = false;
+            for (long id : gone) {
+                forgot |= id <= through && deleted.remove(id);
+            }
+            if (forgot) {
+                StringBuilder lines = new StringBuilder();
+                for (long id : deleted) {
+                    lines.append(id).append('\n');
+                }
+                Path temp = tombstoneFile.resolveSibling("tombstones.tmp");
+                Files.write(temp, lines.toString().getBytes(StandardCharsets.UTF_8));
+                Files.move(temp, tombstoneFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Builds the search index again from the log once posts have left it, and swaps it in on the indexing thread.
+     * @throws IOException an error in reading the log
+     */
+    private void reindex() throws IOException {
+        FeedIndex fresh = index(posts.snapshot());
+        indexer.execute(() -> {
+            // posts committed while the index was being built are added before it is used
+            try {
+                PostLog.Snapshot snapshot = posts.snapshot();
+                int first = snapshot.count();
+                while (first > 0 && snapshot.record(first - 1).id() > fresh.newestId()) {
+                    first--;
+                }
+                ArrayList<PostRecord> missed = new ArrayList<>();
+                for (int i = first; i < snapshot.count(); i++) {
+                    missed.add(snapshot.record(i));
+                }
+                fresh.append(missed);
+                index = fresh;
+            } catch (IOException e) {
+                // the old index still answers, with posts that have been archived; the next compaction builds it again
+            }
+        });
+    }
+
+    /**
+     * Indexes every post of the log, a batch at a time, so they are never all in memory as PostRecords at once.
+     * @param snapshot the posts of the log
+     * @return the index
+     * @throws IOException an error in reading the log
+     */
+    private static FeedIndex index(PostLog.Snapshot snapshot) throws IOException {
+        FeedIndex index = new FeedIndex();
+        ArrayList<PostRecord> existing = new ArrayList<>(LOAD_BATCH);
+        for (int i = 0; i < snapshot.count(); i++) {
+            existing.add(snapshot.record(i));
+            if (existing.size() == LOAD_BATCH || i == snapshot.count() - 1) {
+                index.append(existing);
+                existing.clear();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the posts of the board still in the log
+     */
+    public PostLog posts() {
+        return posts;
+    }
+
+    /**
+     * @return the older posts of the board
+     */
+    public PostArchive archive() {
+        return archive;
+    }
+
+    /**
+     * @return the subscriptions to new posts of the board
+     */
+    public PostEvents events() {
+        return events;
+    }
+
+    /**
+     * @return the search index of the posts of the log, which lags the log by the time it takes to index a commit
+     */
+    public FeedIndex index() {
+        return index;
+    }
+
+    /**
+     * Closes the subscriptions, the indexing thread, the log and the archive.
+     * @throws IOException an error in closing the log or the archive
+     */
+    @Override
+    public void close() throws IOException {
+        events.close();
+        indexer.shutdown();
+        posts.close();
+        archive.close();
+    }
+}
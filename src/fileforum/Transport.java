@@ -0,0 +1,322 @@
+package fileforum;
+
+import java.io.*; // import used for reading website responses
+
+import java.net.URI; // import used for addressing requests
+import java.net.http.*; // import used for sending HTTP GET and POST requests to the server
+
+import java.nio.charset.StandardCharsets; // import used for encoding request bodies
+import java.time.Duration; // import used for timeouts
+import java.util.Map; // import used for passing request headers
+
+import java.util.zip.GZIPInputStream; // import used for decoding gzip responses
+import java.util.zip.Inflater; // import used for decoding raw deflate responses
+import java.util.zip.InflaterInputStream; // import used for decoding deflate responses
+
+/**
+ * The Transport class is the single HTTP connection to the server shared by every request the program sends.
+ * It is built on java.net.http.HttpClient, which keeps connections alive between requests and uses HTTP/2 where the server supports it, so most requests skip connection setup entirely.
+ * Responses are asked for compressed (gzip or deflate) and decoded here, then read straight into a byte array instead of line by line.
+ * Once a user has logged in, every request carries their session token in an Authorization header.
+ * Every request is timed and its bytes counted as they come over the wire, for the operation it is sent for (see the Diagnostics class).
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class Transport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10); // the time allowed to open a connection
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30); // the time allowed for a whole request
+
+    private final String USER_AGENT; // the agent on which to send GET and POST requests
+
+    private final HttpClient http; // the pooled connections to the server
+
+    private volatile String session; // the session token sent with every request, or null if nobody is logged in
+
+    /**
+     * Constructor method which sets up the shared connection pool.
+     * @param userAgent the agent on which to send GET and POST requests
+     */
+    public Transport(String userAgent) {
+        USER_AGENT = userAgent;
+        http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+    }
+
+    /**
+     * Sets the session token sent with every request from now on.
+     * @param token the session token of the user logged in, or null if nobody is
+     */
+    public void session(String token) {
+        session = token;
+    }
+
+    /**
+     * Sends a GET request and reads the whole (decoded) answer.
+     * A compressed answer is asked for unless the headers already say otherwise; Range requests should ask for "identity" so byte offsets refer to the file itself.
+     * @param url the URL to send the request to
+     * @param headers extra request headers, such as If-None-Match or Range
+     * @return the answer of the server
+     * @throws Exception an error in retrieval of data
+     */
+    public Response get(String url, Map<String, String> headers) throws Exception {
+        HttpRequest.Builder request = request(url, headers).GET();
+        return send(request.build());
+    }
+
+    /**
+     * Sends a GET request and hands back the (decoded) answer as it arrives, instead of waiting for all of it.
+     * The caller must close the answer, even if it does not read it.
+     * @param url the URL to send the request to
+     * @param headers extra request headers, such as If-None-Match or Range
+     * @return the answer of the server, with its body still to be read
+     * @throws Exception an error in contacting the server
+     */
+    public Stream stream(String url, Map<String, String> headers) throws Exception {
+        HttpRequest request = request(url, headers).GET().build();
+        Diagnostics.Exchange exchange = Diagnostics.request(request.method(), url, 0);
+        HttpResponse<InputStream> response;
+        try {
+            response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (Exception e) {
+            exchange.failed(e);
+            throw e;
+        }
+        return new Stream(response.statusCode(), response.headers(), decode(exchange, response));
+    }
+
+    /**
+     * Sends a HEAD request, which costs the server no more than the headers of the resource.
+     * @param url the URL to send the request to
+     * @return the answer of the server, with an empty body
+     * @throws Exception an error in contacting the server
+     */
+    public Response head(String url) throws Exception {
+        HttpRequest.Builder request = request(url, Map.of()).method("HEAD", HttpRequest.BodyPublishers.noBody());
+        return send(request.build());
+    }
+
+    /**
+     * Sends a POST request with the given body and reads the whole (decoded) answer.
+     * @param url the URL to send the request to
+     * @param body the body of the request
+     * @return the answer of the server
+     * @throws Exception an error in sending data
+     */
+    public Response post(String url, String body) throws Exception {
+        return post(url, body, "application/x-www-form-urlencoded");
+    }
+
+    /**
+     * Sends a POST request with a body of the given type and reads the whole (decoded) answer.
+     * @param url the URL to send the request to
+     * @param body the body of the request
+     * @param contentType the type of the body, such as application/x-ndjson
+     * @return the answer of the server
+     * @throws Exception an error in sending data
+     */
+    public Response post(String url, String body, String contentType) throws Exception {
+        HttpRequest.Builder request = request(url, Map.of())
+                .header("Accept-Language", "en-US,en;q=0.5")
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8));
+        return send(request.build());
+    }
+
+    /**
+     * Builds a request with the headers every request carries.
+     * @param url the URL to send the request to
+     * @param headers extra request headers
+     * @return the request, ready for a method and body
+     */
+    private HttpRequest.Builder request(String url, Map<String, String> headers) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .header("User-Agent", USER_AGENT);
+        String token = session;
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        if (!headers.containsKey("Accept-Encoding")) {
+            request.header("Accept-Encoding", "gzip, deflate");
+        }
+        headers.forEach(request::header);
+        return request;
+    }
+
+    /**
+     * Sends a request and reads its answer, decoding it if it was compressed.
+     * @param request the request to send
+     * @return the answer of the server
+     * @throws Exception an error in sending or retrieval of data
+     */
+    private Response send(HttpRequest request) throws Exception {
+        Diagnostics.Exchange exchange = Diagnostics.request(request.method(), request.uri().toString(), request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L));
+        HttpResponse<InputStream> response;
+        try {
+            response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (Exception e) {
+            exchange.failed(e);
+            throw e;
+        }
+        try (InputStream in = decode(exchange, response)) {
+            return new Response(response.statusCode(), response.headers(), in.readAllBytes());
+        }
+    }
+
+    /**
+     * Starts reading an answer, decoding it if it was compressed.
+     * If the decoder cannot even start, such as on a broken gzip header, the answer is closed and the request counted as failed.
+     * @param exchange the request as counted by Diagnostics
+     * @param response the answer, with its body still to be read
+     * @return the answer as the server meant it
+     * @throws IOException an error in reading the start of the answer
+     */
+    private static InputStream decode(Diagnostics.Exchange exchange, HttpResponse<InputStream> response) throws IOException {
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim();
+        try {
+            return decode(exchange.answered(response.statusCode(), response.body()), encoding);
+        } catch (IOException | RuntimeException e) {
+            try {
+                response.body().close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            exchange.failed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps an answer in the decoder matching its Content-Encoding.
+     * "deflate" is meant to be zlib-wrapped, but some servers send raw deflate, so the first byte decides which one it is.
+     * An empty body is passed on as it is whatever the header says, since answers to HEAD and 204 and 304 answers may name an encoding without having a body to decode.
+     * @param body the answer as sent by the server
+     * @param encoding the value of the Content-Encoding header
+     * @return the answer as the server meant it
+     * @throws IOException an error in reading the answer
+     */
+    private static InputStream decode(InputStream body, String encoding) throws IOException {
+        boolean gzip = encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip");
+        if (!gzip && !encoding.equalsIgnoreCase("deflate")) {
+            return body;
+        }
+        PushbackInputStream peek = new PushbackInputStream(body, 1);
+        int first = peek.read();
+        if (first < 0) {
+            return peek;
+        }
+        peek.unread(first);
+        if (gzip) {
+            return new GZIPInputStream(peek, 8192);
+        }
+        boolean zlib = (first & 0x0f) == 8; // a zlib header always names the deflate method in its low bits
+        return new InflaterInputStream(peek, new Inflater(!zlib), 8192);
+    }
+
+    /**
+     * The answer of the server to a single request, with its body already read and decoded.
+     */
+    public static class Response {
+        private final int status; // the response code
+        private final HttpHeaders headers; // the response headers
+        private final byte[] body; // the decoded body
+
+        /**
+         * Constructor method which holds an answer that has been read completely.
+         * @param status the response code
+         * @param headers the response headers
+         * @param body the decoded body
+         */
+        public Response(int status, HttpHeaders headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @return the response code
+         */
+        public int status() {
+            return status;
+        }
+
+        /**
+         * @param name the name of the header
+         * @return the first value of the header, or null if the server did not send it
+         */
+        public String header(String name) {
+            return headers.firstValue(name).orElse(null);
+        }
+
+        /**
+         * @return the decoded body
+         */
+        public byte[] body() {
+            return body;
+        }
+
+        /**
+         * @return the decoded body as text
+         */
+        public String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The answer of the server to a single request, with its body still arriving.
+     */
+    public static class Stream implements Closeable {
+        private final int status; // the response code
+        private final HttpHeaders headers; // the response headers
+        private final InputStream body; // the decoded body, as it arrives
+
+        /**
+         * Constructor method which holds an answer whose body has not been read yet.
+         * @param status the response code
+         * @param headers the response headers
+         * @param body the decoded body, as it arrives
+         */
+        public Stream(int status, HttpHeaders headers, InputStream body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @return the response code
+         */
+        public int status() {
+            return status;
+        }
+
+        /**
+         * @param name the name of the header
+         * @return the first value of the header, or null if the server did not send it
+         */
+        public String header(String name) {
+            return headers.firstValue(name).orElse(null);
+        }
+
+        /**
+         * @return the decoded body, as it arrives
+         */
+        public InputStream body() {
+            return body;
+        }
+
+        /**
+         * Closes the body, letting the connection be reused.
+         * @throws IOException an error in closing the body
+         */
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package fileforum;
+
+import java.io.*; // import used for reading and writing the user file
+
+import java.nio.charset.StandardCharsets; // import used for encoding the user file
+import java.nio.file.*; // import used for opening the user file
+
+import java.security.MessageDigest; // import used for comparing password hashes
+import java.security.SecureRandom; // import used for generating salts and session tokens
+import java.security.spec.KeySpec; // import used for describing a password to hash
+import java.util.ArrayList; // import used for rewriting the user file
+import java.util.Base64; // import used for encoding salts, hashes and session tokens
+import java.util.List; // import used for rewriting the user file
+import java.util.Map; // import used for rewriting the user file
+import java.util.concurrent.ConcurrentHashMap; // import used for looking up users and sessions
+
+import javax.crypto.SecretKeyFactory; // import used for hashing passwords
+import javax.crypto.spec.PBEKeySpec; // import used for hashing passwords
+
+/**
+ * The UserStore class keeps the accounts of the server and the sessions of the users logged in.
+ * Accounts are held in a hash map and appended to a single file, one "username salt hash" line each, instead of a directory per user.
+ *
+ * ### PASSWORDS ###
+ * Passwords are never stored. Each account has a random salt, and the password is hashed with it using PBKDF2, so the file is of no use for logging in and two users with the same password do not share a hash.
+ * Files written by older versions, with "username password" lines, are hashed and rewritten when the store is opened.
+ *
+ * ### SESSIONS ###
+ * Logging in costs a password hash; every request after that only costs a lookup of its session token in memory.
+ * A session ends after a day without requests. Sessions only live in memory, so a restart of the server logs everybody out.
+ * <br>
+ * ---OTHER INFORMATION---<br>
+ * @version 1.1
+ * @since   2019-03-10
+ */
+public class UserStore {
+    private static final int ITERATIONS = 20000; // the number of rounds of PBKDF2, which makes guessing passwords from the file slow
+    private static final int HASH_BITS = 256; // the length of a password hash
+    private static final int SALT_BYTES = 16; // the length of a salt
+    private static final long SESSION_TTL = 24 * 60 * 60 * 1000L; // the number of milliseconds a session lasts without a request
+
+    private final Path file; // the file the accounts are appended to
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>(); // the account of every username
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>(); // the session of every token
+    private final SecureRandom random = new SecureRandom(); // the source of salts and session tokens
+
+    /**
+     * Constructor method which loads the accounts from a file, creating it if needed.
+     * @param file the file the accounts are kept in
+     * @throws IOException an error in reading the file, or in rewriting a file of an older version
+     */
+    public UserStore(Path file) throws IOException {
+        this.file = file;
+        if (!Files.exists(file)) {
+            return;
+        }
+        boolean plain = false;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(" ");
+            if (fields.length == 3) {
+                Base64.Decoder decoder = Base64.getDecoder();
+                accounts.put(fields[0], new Account(decoder.decode(fields[1]), decoder.decode(fields[2])));
+            } else if (fields.length == 2) {
+                // a password in the clear, from an older version
+                accounts.put(fields[0], account(fields[1]));
+                plain = true;
+            }
+        }
+        if (plain) {
+            List<String> lines = new ArrayList<>();
+            for (Map.Entry<String, Account> entry : accounts.entrySet()) {
+                lines.add(line(entry.getKey(), entry.getValue()));
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Creates an account and logs it in.
+     * @param username the username of the new user, which may not contain whitespace
+     * @param password the password of the new user
+     * @return the session token of the new user, or null if the username is taken
+     * @throws IOException an error in writing the file
+     */
+    public String add(String username, String password) throws IOException {
+        Account account = account(password);
+        if (accounts.putIfAbsent(username, account) != null) {
+            return null;
+        }
+        synchronized (this) {
+            Files.write(file, (line(username, account) + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return start(username);
+    }
+
+    /**
+     * Logs a user in.
+     * @param username the username of the user
+     * @param password the password of the user
+     * @return the session token of the user, or null if the credentials do not exist
+     */
+    public String login(String username, String password) {
+        Account account = accounts.get(username);
+        if (account == null || !MessageDigest.isEqual(account.hash, hash(password, account.salt))) {
+            return null;
+        }
+        return start(username);
+    }
+
+    /**
+     * Finds the user a session token belongs to, keeping the session alive.
+     * @param token the session token sent with a request, or null if there was none
+     * @return the username of the user, or null if the token is not a live session
+     */
+    public String user(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - session.used > SESSION_TTL) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.used = now;
+        return session.username;
+    }
+
+    /**
+     * Starts a session for a user whose credentials were checked, dropping any sessions that have run out.
+     * @param username the username of the user
+     * @return the session token
+     */
+    private String start(String username) {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> now - session.used > SESSION_TTL);
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(username, now));
+        return token;
+    }
+
+    /**
+     * Hashes a password with a new salt.
+     * @param password the password
+     * @return the account the password logs in to
+     */
+    private Account account(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return new Account(salt, hash(password, salt));
+    }
+
+    /**
+     * Writes an account as a line of the user file.
+     * @param username the username of the account
+     * @param account the salt and hash of its password
+     * @return the line, without a line break
+     */
+    private static String line(String username, Account account) {
+        Base64.Encoder encoder = Base64.getEncoder();
+        return username + " " + encoder.encodeToString(account.salt) + " " + encoder.encodeToString(account.hash);
+    }
+
+    /**
+     * Hashes a password with PBKDF2.
+     * @param password the password
+     * @param salt the salt of the account
+     * @return the hash
+     */
+    private static byte[] hash(String password, byte[] salt) {
+        try {
+            KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, HASH_BITS);
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (Exception e) {
+            // every Java runtime has PBKDF2WithHmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The salt and password hash of an account.
+     */
+    private static class Account {
+        private final byte[] salt; // the random salt of the account
+        private final byte[] hash; // the hash of the password with the salt
+
+        /**
+         * @param salt the random salt of the account
+         * @param hash the hash of the password with the salt
+         */
+        Account(byte[] salt, byte[] hash) {
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A user logged in.
+     */
+    private static class Session {
+        private final String username; // the user the session belongs to
+        private volatile long used; // the time of the last request of the session, in milliseconds since the epoch
+
+        /**
+         * @param username the user the session belongs to
+         * @param used the time the session started, in milliseconds since the epoch
+         */
+        Session(String username, long used) {
+            this.username = username;
+            this.used = used;
+        }
+    }
+}